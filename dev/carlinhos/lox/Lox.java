@@ -3,10 +3,15 @@ package dev.carlinhos.lox;
 import dev.carlinhos.lox.entities.Stmt;
 import dev.carlinhos.lox.entities.Token;
 import dev.carlinhos.lox.entities.TokenType;
+import dev.carlinhos.lox.entities.TypeFeedback;
+import dev.carlinhos.lox.passes.CompactAst;
 import dev.carlinhos.lox.passes.Interpreter;
+import dev.carlinhos.lox.passes.ParallelFrontEnd;
 import dev.carlinhos.lox.passes.Parser;
 import dev.carlinhos.lox.passes.Resolver;
 import dev.carlinhos.lox.passes.Scanner;
+import dev.carlinhos.lox.runtime.HeapImage;
+import dev.carlinhos.lox.runtime.OutputSink;
 import dev.carlinhos.lox.runtime.RuntimeError;
 
 import java.io.BufferedReader;
@@ -14,12 +19,29 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class Lox {
 
-    private static final Interpreter interpreter = new Interpreter();
+    private static final OutputSink output = OutputSink.fromProperties(System.out);
+    private static final Interpreter interpreter = new Interpreter(output);
+
+    // Sources at least this many bytes keep their AST compact, -Dlox.ast.compact.
+    private static final long COMPACT_SOURCE = Long.getLong("lox.ast.compact", 16L << 20);
+
+    // Parses and resolves top level declarations in parallel, -Dlox.parse.parallel.
+    private static final boolean PARALLEL_FRONT_END = Boolean.getBoolean("lox.parse.parallel");
+
+    // Starts from the globals in a heap image a prelude left, -Dlox.image.
+    private static final String IMAGE = System.getProperty("lox.image");
+
+    // Reports made on a thread that is working on part of a program, or on a
+    // module, are held and replayed in order once that part is needed.
+    private static final ThreadLocal<Reports> heldReports = new ThreadLocal<>();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
@@ -27,16 +49,68 @@ public class Lox {
         if (args.length > 1) {
             System.out.println("Usage: jlox [script]");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+        }
+
+        if (IMAGE != null) {
+            try {
+                HeapImage.load(Paths.get(IMAGE), interpreter);
+            } catch (IOException e) {
+                System.err.println("Can't load image '" + IMAGE + "'.");
+                System.exit(66);
+            }
+        }
+
+        // A script that dies on a StackOverflowError or an OutOfMemoryError
+        // still gets out what it printed before.
+        try {
+            if (args.length == 1) {
+                runFile(args[0]);
+            } else {
+                runPrompt();
+            }
+        } finally {
+            output.flush();
         }
     }
 
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        String source = new String(bytes, Charset.defaultCharset());
+        interpreter.setScript(Paths.get(path));
+        interpreter.setFeedback(TypeFeedback.of(Paths.get(path), source));
+        if (bytes.length >= COMPACT_SOURCE) {
+            runCompact(source);
+        } else if (PARALLEL_FRONT_END) {
+            runParallel(source);
+        } else {
+            run(source);
+        }
+        exit();
+    }
+
+    // Runs a script loxc compiled ahead of time, which starts at resolution
+    // and prints what running the source would. It shares the source's
+    // entry in the profile.
+    public static void runPrecompiled(Precompiled.Source program, List<Precompiled.Source> modules) {
+        interpreter.setScript(Paths.get(program.path()));
+        interpreter.setFeedback(TypeFeedback.forHash(Paths.get(program.path()), program.hash()));
+        for (Precompiled.Source module : modules) {
+            interpreter.bundle(Paths.get(module.path()), module.hash(), module.ast());
+        }
+
+        CompactAst ast = program.ast();
+        List<Stmt> statements = new ArrayList<>(ast.size());
+        for (int i = 0; i < ast.size(); i++) {
+            statements.add(ast.statement(i));
+        }
+
+        run(statements);
+        exit();
+    }
+
+    private static void exit() {
+        output.flush();
+        TypeFeedback.save();
 
         // Indicate an error in the exit code.
         if (hadError) System.exit(65);
@@ -48,12 +122,15 @@ public class Lox {
         BufferedReader reader = new BufferedReader(input);
 
         for (; ; ) {
-            System.out.print("> ");
+            output.print("> ");
+            output.flush();
             String line = reader.readLine();
             if (line == null) break;
-            System.out.println(run(line));
+            output.println(String.valueOf(run(line)));
             hadError = false;
         }
+
+        output.flush();
     }
 
     private static Object run(String source) {
@@ -65,6 +142,10 @@ public class Lox {
         // Stop if there was a syntax error.
         if (hadError) return null;
 
+        return run(statements);
+    }
+
+    private static Object run(List<Stmt> statements) {
         Resolver resolver = new Resolver(interpreter);
         resolver.resolve(statements);
 
@@ -77,37 +158,175 @@ public class Lox {
         return null;
     }
 
-    public static void error(int line, String message) {
-        reportError(line, "", message);
+    // Parses and checks a whole program into a compact AST, null if it has
+    // errors.
+    public static CompactAst compile(String source) {
+        Parser parser = new Parser(new Scanner(source).scanTokens());
+        CompactAst ast = parser.parseCompact();
+
+        // Stop if there was a syntax error.
+        if (hadError) return null;
+
+        Resolver checker = new Resolver(interpreter);
+        for (int i = 0; i < ast.size(); i++) {
+            checker.resolveStatements(List.of(ast.statement(i)));
+        }
+        checker.finish();
+        output.flush();
+
+        return hadError ? null : ast;
+    }
+
+    // Parses a module loxc bundles, null if it has syntax errors. It's
+    // resolved when it's imported, against globals of its own.
+    public static CompactAst parseModule(String source, String file) {
+        CompactAst ast = new Parser(new Scanner(source, file).scanTokens()).parseCompact();
+        return hadError ? null : ast;
+    }
+
+    // Runs a prelude and writes the globals it declared to a heap image.
+    // Returns false if the prelude has errors.
+    public static boolean buildImage(Path prelude, Path image) throws IOException {
+        String source = new String(Files.readAllBytes(prelude), Charset.defaultCharset());
+        interpreter.setScript(prelude);
+
+        // Its tokens name it, so errors in functions read from the image
+        // point at the prelude's lines.
+        List<Stmt> statements = new Parser(new Scanner(source, fileName(prelude)).scanTokens()).parse();
+        if (hadError) return false;
+
+        // What the prelude declares is there for the scripts that start from
+        // it, so it isn't warned about.
+        new Resolver(interpreter).resolveModule(statements);
+        if (hadError) return false;
+
+        Map<String, Object> globals;
+        try {
+            globals = interpreter.load(statements);
+        } catch (RuntimeError error) {
+            runtimeError(error);
+            return false;
+        } finally {
+            output.flush();
+        }
+
+        HeapImage.write(image, prelude, TypeFeedback.hash(source), statements, globals);
+        return true;
+    }
+
+    private static void runCompact(String source) {
+        // The whole program is checked before any of it runs. Each statement
+        // is then decoded and resolved again right before it runs, so only
+        // one statement's nodes (and the closures it leaves) are alive.
+        CompactAst ast = compile(source);
+        if (ast == null) return;
+
+        // compile() already reported what resolving finds, so the reports of
+        // the second resolution are dropped.
+        Resolver resolver = new Resolver(interpreter);
+        for (int i = 0; i < ast.size() && !hadRuntimeError; i++) {
+            List<Stmt> statement = List.of(ast.statement(i));
+            new Reports().hold(() -> resolver.resolveStatements(statement));
+            interpreter.interpret(statement);
+        }
+    }
+
+    private static void runParallel(String source) {
+        List<Token> tokens = new Scanner(source).scanTokens();
+        List<Stmt> statements = ParallelFrontEnd.parseAndResolve(tokens, interpreter);
+
+        // Stop if there was a syntax or resolution error.
+        if (hadError) return;
+
+        interpreter.interpret(statements);
+    }
+
+    public static final class Reports {
+        private final List<Runnable> reports = new ArrayList<>();
+        private boolean hadError = false;
+
+        // Runs work with its errors and warnings held here instead of printed.
+        public void hold(Runnable work) {
+            heldReports.set(this);
+            try {
+                work.run();
+            } finally {
+                heldReports.remove();
+            }
+        }
+
+        public boolean hadError() {
+            return hadError;
+        }
+
+        public void replay() {
+            for (Runnable report : reports) {
+                report.run();
+            }
+        }
+    }
+
+    public static void error(String file, int line, String message) {
+        reportError(file, line, "", message);
     }
 
     public static void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
-            reportError(token.line, " at end", message);
+            reportError(token.file, token.line, " at end", message);
         } else {
-            reportError(token.line, " at '" + token.lexeme + "'", message);
+            reportError(token.file, token.line, " at '" + token.lexeme + "'", message);
         }
     }
 
     public static void warn(Token token, String message) {
         if (token.type == TokenType.EOF) {
-            reportWarning(token.line, " at end", message);
+            reportWarning(token.file, token.line, " at end", message);
         } else {
-            reportWarning(token.line, " at '" + token.lexeme + "'", message);
+            reportWarning(token.file, token.line, " at '" + token.lexeme + "'", message);
         }
     }
 
     public static void runtimeError(RuntimeError error) {
-        System.err.println("[line " + error.token.line + "] " + error.getMessage());
+        output.flush();
+        System.err.println("[" + location(error.token.file, error.token.line) + "] " + error.getMessage());
         hadRuntimeError = true;
     }
 
-    private static void reportError(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
+    private static void reportError(String file, int line, String where, String message) {
+        Reports held = heldReports.get();
+        if (held != null) {
+            held.reports.add(() -> reportError(file, line, where, message));
+            held.hadError = true;
+            return;
+        }
+
+        output.flush();
+        System.err.println("[" + location(file, line) + "] Error" + where + ": " + message);
         hadError = true;
     }
 
-    private static void reportWarning(int line, String where, String message) {
-        System.out.println("[line " + line + "] Warning" + where + ": " + message);
+    private static void reportWarning(String file, int line, String where, String message) {
+        Reports held = heldReports.get();
+        if (held != null) {
+            held.reports.add(() -> reportWarning(file, line, where, message));
+            return;
+        }
+
+        output.println("[" + location(file, line) + "] Warning" + where + ": " + message);
+    }
+
+    // How reports and runtime errors name a file other than the script being
+    // run, like a module or a prelude: by its path from the working directory.
+    public static String fileName(Path path) {
+        try {
+            return Path.of("").toAbsolutePath().relativize(path.toAbsolutePath()).toString();
+        } catch (IllegalArgumentException e) {
+            return path.toString();
+        }
+    }
+
+    // Lines in modules name the module, lines in the script being run don't.
+    private static String location(String file, int line) {
+        return file == null ? "line " + line : file + ", line " + line;
     }
 }
@@ -0,0 +1,56 @@
+package dev.carlinhos.lox;
+
+import dev.carlinhos.lox.passes.CompactAst;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// The entry point of a JAR built by loxc. It runs the program stored in the
+// JAR, and imports the modules stored with it, without scanning or parsing
+// any of them.
+public class Precompiled {
+
+    // The script's path, for imports, and the hash of its source, for
+    // profiles, followed by its compact AST. Then the number of modules it
+    // imports, directly or not, each stored the same way.
+    public static final String PROGRAM = "dev/carlinhos/lox/program.loxc";
+
+    public record Source(String path, String hash, CompactAst ast) {
+        static Source read(DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            String hash = in.readUTF();
+            return new Source(path, hash, CompactAst.read(in));
+        }
+
+        public void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeUTF(hash);
+            ast.write(out);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        InputStream stream = Precompiled.class.getClassLoader().getResourceAsStream(PROGRAM);
+        if (stream == null) {
+            System.err.println("No compiled program in this JAR.");
+            System.exit(66);
+        }
+
+        Source program;
+        List<Source> modules = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            program = Source.read(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                modules.add(Source.read(in));
+            }
+        }
+
+        Lox.runPrecompiled(program, modules);
+    }
+}
@@ -0,0 +1,22 @@
+package dev.carlinhos.lox.entities;
+
+// Where the resolver put a local variable: a slot in the current call frame,
+// or an upvalue captured by the closure. Every site of one variable shares
+// the same binding, so marking it captured later reaches all of them.
+public class Binding {
+    public final boolean upvalue;
+    public final int index;
+
+    // Captured slots hold a Cell so closures can share them.
+    public boolean captured = false;
+
+    public Binding(boolean upvalue, int index) {
+        this.upvalue = upvalue;
+        this.index = index;
+    }
+
+    // Stores a fresh variable, boxing it only if some closure captures it.
+    public void initialize(Object[] frame, Object value) {
+        frame[index] = captured ? new Cell(value) : value;
+    }
+}
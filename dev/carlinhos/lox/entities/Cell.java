@@ -0,0 +1,10 @@
+package dev.carlinhos.lox.entities;
+
+// A variable that is shared by reference instead of living in an environment.
+public class Cell {
+    public Object value;
+
+    public Cell(Object value) {
+        this.value = value;
+    }
+}
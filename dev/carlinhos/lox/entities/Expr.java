@@ -17,6 +17,10 @@ public abstract class Expr {
     R visitLiteralExpr(Literal expr);
     R visitGetExpr(Get expr);
     R visitSetExpr(Set expr);
+    R visitListLiteralExpr(ListLiteral expr);
+    R visitMapLiteralExpr(MapLiteral expr);
+    R visitIndexExpr(Index expr);
+    R visitIndexSetExpr(IndexSet expr);
     R visitSuperExpr(Super expr);
     R visitThisExpr(This expr);
   }
@@ -47,6 +51,9 @@ public abstract class Expr {
 
     public final Token name;
     public final Expr value;
+
+    public Binding binding;
+    public Cell global;
   }
 
   public static class Ternary extends Expr {
@@ -77,6 +84,10 @@ public abstract class Expr {
     }
 
     public final Token name;
+
+    public Binding binding;
+    public Cell global;
+    public boolean checked;
   }
 
   public static class Logical extends Expr {
@@ -173,6 +184,8 @@ public abstract class Expr {
 
     public final List<Token> params;
     public final List<Stmt> body;
+
+    public FrameLayout layout;
   }
 
   public static class Literal extends Expr {
@@ -220,6 +233,74 @@ public abstract class Expr {
     public final Expr value;
   }
 
+  public static class ListLiteral extends Expr {
+    public ListLiteral(Token bracket, List<Expr> elements) {
+      this.bracket = bracket;
+      this.elements = elements;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitListLiteralExpr(this);
+    }
+
+    public final Token bracket;
+    public final List<Expr> elements;
+  }
+
+  public static class MapLiteral extends Expr {
+    public MapLiteral(Token brace, List<Expr> keys, List<Expr> values) {
+      this.brace = brace;
+      this.keys = keys;
+      this.values = values;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitMapLiteralExpr(this);
+    }
+
+    public final Token brace;
+    public final List<Expr> keys;
+    public final List<Expr> values;
+  }
+
+  public static class Index extends Expr {
+    public Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    public final Expr object;
+    public final Token bracket;
+    public final Expr index;
+  }
+
+  public static class IndexSet extends Expr {
+    public IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexSetExpr(this);
+    }
+
+    public final Expr object;
+    public final Token bracket;
+    public final Expr index;
+    public final Expr value;
+  }
+
   public static class Super extends Expr {
     public Super(Token keyword, Token method) {
       this.keyword = keyword;
@@ -233,6 +314,9 @@ public abstract class Expr {
 
     public final Token keyword;
     public final Token method;
+
+    public Binding binding;
+    public Binding self;
   }
 
   public static class This extends Expr {
@@ -246,6 +330,8 @@ public abstract class Expr {
     }
 
     public final Token keyword;
+
+    public Binding binding;
   }
 
   public abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,43 @@
+package dev.carlinhos.lox.entities;
+
+import dev.carlinhos.lox.runtime.CompiledBody;
+
+import java.util.List;
+
+// The frame the resolver laid out for a function body.
+public class FrameLayout {
+    public int size;
+    public Binding self;
+    public Binding[] params;
+
+    // Bindings in the enclosing function that the closure takes cells from.
+    public Binding[] captures;
+
+    // Whether the body yields, which turns each call into a generator.
+    public boolean generator = false;
+
+    // Calls counted until the body gets compiled, and the compiled body.
+    public int calls = 0;
+    public CompiledBody compiled;
+
+    public Object[] enter(Object self, List<Object> arguments) {
+        Object[] frame = new Object[size];
+        if (this.self != null) this.self.initialize(frame, self);
+
+        for (int i = 0; i < params.length; i++) {
+            params[i].initialize(frame, arguments.get(i));
+        }
+
+        return frame;
+    }
+
+    public Cell[] capture(Object[] frame, Cell[] upvalues) {
+        Cell[] cells = new Cell[captures.length];
+        for (int i = 0; i < captures.length; i++) {
+            Binding binding = captures[i];
+            cells[i] = binding.upvalue ? upvalues[binding.index] : (Cell) frame[binding.index];
+        }
+
+        return cells;
+    }
+}
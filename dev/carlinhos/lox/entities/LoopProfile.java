@@ -0,0 +1,18 @@
+package dev.carlinhos.lox.entities;
+
+import dev.carlinhos.lox.runtime.CompiledBody;
+
+// How often a while loop came back around, and the trace compiled for it
+// once it got hot.
+public class LoopProfile {
+    public int backEdges = 0;
+
+    // Traces thrown away because one of their guards failed.
+    public int failures = 0;
+
+    public CompiledBody trace;
+
+    // What the trace was compiled from: an iteration recorded this run, or
+    // the feedback of an earlier run the loop was hot in.
+    public TypeFeedback recording;
+}
@@ -6,13 +6,17 @@ public abstract class Stmt {
   public interface Visitor<R> {
     R visitClassStmt(Class stmt);
     R visitVarStmt(Var stmt);
+    R visitImportStmt(Import stmt);
     R visitFunctionStmt(Function stmt);
     R visitLambdaStmt(Lambda stmt);
     R visitIfStmt(If stmt);
     R visitPrintStmt(Print stmt);
     R visitReturnStmt(Return stmt);
+    R visitYieldStmt(Yield stmt);
     R visitBreakStmt(Break stmt);
     R visitWhileStmt(While stmt);
+    R visitForStmt(For stmt);
+    R visitForInStmt(ForIn stmt);
     R visitBlockStmt(Block stmt);
     R visitExpressionStmt(Expression stmt);
   }
@@ -32,6 +36,9 @@ public abstract class Stmt {
     public final Token name;
     public final Expr.Variable superclass;
     public final List<Stmt.Function> methods;
+
+    public Binding binding;
+    public Binding superBinding;
   }
 
   public static class Var extends Stmt {
@@ -47,6 +54,23 @@ public abstract class Stmt {
 
     public final Token name;
     public final Expr initializer;
+
+    public Binding binding;
+  }
+
+  public static class Import extends Stmt {
+    public Import(Token keyword, String path) {
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    public final Token keyword;
+    public final String path;
   }
 
   public static class Function extends Stmt {
@@ -64,6 +88,9 @@ public abstract class Stmt {
     public final Token name;
     public final List<Token> params;
     public final List<Stmt> body;
+
+    public Binding binding;
+    public FrameLayout layout;
   }
 
   public static class Lambda extends Stmt {
@@ -79,10 +106,13 @@ public abstract class Stmt {
 
     public final List<Token> params;
     public final List<Stmt> body;
+
+    public FrameLayout layout;
   }
 
   public static class If extends Stmt {
-    public If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+    public If(Token keyword, Expr condition, Stmt thenBranch, Stmt elseBranch) {
+      this.keyword = keyword;
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
@@ -93,6 +123,7 @@ public abstract class Stmt {
       return visitor.visitIfStmt(this);
     }
 
+    public final Token keyword;
     public final Expr condition;
     public final Stmt thenBranch;
     public final Stmt elseBranch;
@@ -126,6 +157,21 @@ public abstract class Stmt {
     public final Expr value;
   }
 
+  public static class Yield extends Stmt {
+    public Yield(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitYieldStmt(this);
+    }
+
+    public final Token keyword;
+    public final Expr value;
+  }
+
   public static class Break extends Stmt {
     public Break(Token keyword) {
       this.keyword = keyword;
@@ -140,7 +186,8 @@ public abstract class Stmt {
   }
 
   public static class While extends Stmt {
-    public While(Expr condition, Stmt body) {
+    public While(Token keyword, Expr condition, Stmt body) {
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
@@ -150,8 +197,52 @@ public abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    public final Token keyword;
+    public final Expr condition;
+    public final Stmt body;
+
+    public LoopProfile profile;
+  }
+
+  public static class For extends Stmt {
+    public For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+      this.initializer = initializer;
+      this.condition = condition;
+      this.increment = increment;
+      this.body = body;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForStmt(this);
+    }
+
+    public final Stmt initializer;
     public final Expr condition;
+    public final Expr increment;
     public final Stmt body;
+
+    public Binding counter;
+    public double step;
+  }
+
+  public static class ForIn extends Stmt {
+    public ForIn(Token name, Expr iterable, Stmt body) {
+      this.name = name;
+      this.iterable = iterable;
+      this.body = body;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitForInStmt(this);
+    }
+
+    public final Token name;
+    public final Expr iterable;
+    public final Stmt body;
+
+    public Binding binding;
   }
 
   public static class Block extends Stmt {
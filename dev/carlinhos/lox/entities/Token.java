@@ -5,12 +5,22 @@ public class Token {
     public final String lexeme;
     public final Object literal;
     public final int line;
+    // Where on its line the token starts, counting from 1.
+    public final int column;
+    // The module the token is from, null in the script being run.
+    public final String file;
 
-    public Token(TokenType type, String lexeme, Object literal, int line) {
+    public Token(TokenType type, String lexeme, Object literal, int line, int column) {
+        this(type, lexeme, literal, line, column, null);
+    }
+
+    public Token(TokenType type, String lexeme, Object literal, int line, int column, String file) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.column = column;
+        this.file = file;
     }
 
     public String toString() {
@@ -0,0 +1,266 @@
+package dev.carlinhos.lox.entities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// What running one source file showed about it: which kinds of values the
+// operands of each binary expression held, which way each if went, and
+// which loops and functions got hot. A site is the line and column of the
+// node's token.
+//
+// With -Dlox.profile=<file> the feedback of every script and module run is
+// written to the file at exit, keyed by path and checked against a hash of
+// the source. The next run of the same source starts with it, so the loops
+// and functions that were hot are compiled on first use, specialized the
+// way the last run found them.
+public class TypeFeedback {
+
+    // Operand bits of a binary expression.
+    public static final int LEFT_NUMBER = 1;
+    public static final int LEFT_OTHER = 2;
+    public static final int RIGHT_NUMBER = 4;
+    public static final int RIGHT_OTHER = 8;
+
+    private static final String PROFILE = System.getProperty("lox.profile");
+    private static final int MAGIC = 0x4c4f5850;
+    private static final int VERSION = 1;
+
+    // The profile file as read at startup, and the feedback of every source
+    // run since, by path.
+    private static Map<String, TypeFeedback> stored;
+    private static final Map<String, TypeFeedback> running = new LinkedHashMap<>();
+
+    private final String hash;
+    private final Map<Long, Integer> operands = new HashMap<>();
+    private final Map<Long, Boolean> branches = new HashMap<>();
+    private final Set<Long> hotLoops = new HashSet<>();
+    private final Set<Long> hotFunctions = new HashSet<>();
+
+    // The loops and functions of this run, looked at again when it's saved.
+    // Feedback that won't be saved doesn't keep them.
+    private final Map<Long, LoopProfile> loops;
+    private final Map<Long, FrameLayout> functions;
+
+    public TypeFeedback() {
+        this(null, false);
+    }
+
+    private TypeFeedback(String hash, boolean saved) {
+        this.hash = hash;
+        this.loops = saved ? new HashMap<>() : null;
+        this.functions = saved ? new HashMap<>() : null;
+    }
+
+    // The feedback to run a source with, what the profile has for it when
+    // the source hasn't changed since.
+    public static TypeFeedback of(Path path, String source) {
+        return forHash(path, PROFILE == null ? null : hash(source));
+    }
+
+    // The same, for a program that kept only the hash of its source.
+    public static synchronized TypeFeedback forHash(Path path, String hash) {
+        if (PROFILE == null) return new TypeFeedback();
+        if (stored == null) stored = read(Path.of(PROFILE));
+
+        String key = path.toAbsolutePath().normalize().toString();
+        TypeFeedback feedback = new TypeFeedback(hash, true);
+
+        TypeFeedback previous = stored.get(key);
+        if (previous != null && previous.hash.equals(feedback.hash)) {
+            feedback.merge(previous);
+            feedback.hotLoops.addAll(previous.hotLoops);
+            feedback.hotFunctions.addAll(previous.hotFunctions);
+        }
+
+        running.put(key, feedback);
+        return feedback;
+    }
+
+    // Writes the feedback of this run over the profile's.
+    public static synchronized void save() {
+        if (PROFILE == null || running.isEmpty()) return;
+
+        Map<String, TypeFeedback> profile = new LinkedHashMap<>(stored);
+        running.forEach((path, feedback) -> profile.put(path, feedback.snapshot()));
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(Path.of(PROFILE))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(profile.size());
+            for (Map.Entry<String, TypeFeedback> entry : profile.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        } catch (IOException e) {
+            // A profile that can't be written only costs the next run its head start.
+        }
+    }
+
+    public static long site(Token token) {
+        return (long) token.line << 32 | token.column;
+    }
+
+    // Recording.
+
+    public void operand(Token operator, int bit) {
+        operands.merge(site(operator), bit, (a, b) -> a | b);
+    }
+
+    public void branch(Token keyword, boolean taken) {
+        branch(site(keyword), taken);
+    }
+
+    // An if seen going both ways is marked with null.
+    private void branch(long site, Boolean taken) {
+        boolean seen = branches.containsKey(site);
+        branches.put(site, !seen || Objects.equals(branches.get(site), taken) ? taken : null);
+    }
+
+    // Whether both operands of a binary expression were only ever numbers.
+    public boolean numbers(Token operator) {
+        Integer bits = operands.get(site(operator));
+        return bits != null && bits == (LEFT_NUMBER | RIGHT_NUMBER);
+    }
+
+    // The way an if always went, or null if it went both ways or never ran.
+    public Boolean direction(Token keyword) {
+        return branches.get(site(keyword));
+    }
+
+    // Adds what another run or recording saw operands and branches do.
+    public void merge(TypeFeedback other) {
+        other.operands.forEach((site, bits) -> operands.merge(site, bits, (a, b) -> a | b));
+        other.branches.forEach(this::branch);
+    }
+
+    // Resolving. Loops and functions that were hot last time come back ready
+    // to compile.
+
+    public synchronized LoopProfile loop(Stmt.While loop) {
+        LoopProfile profile = new LoopProfile();
+        if (loops == null) return profile;
+
+        long site = site(loop.keyword);
+        loops.put(site, profile);
+        if (hotLoops.contains(site)) profile.recording = this;
+        return profile;
+    }
+
+    public synchronized boolean function(Token name, FrameLayout layout) {
+        if (functions == null) return false;
+
+        long site = site(name);
+        functions.put(site, layout);
+        return hotFunctions.contains(site);
+    }
+
+    // Storage.
+
+    // What this run learned: the feedback of the loops still running traces
+    // and the functions that got compiled.
+    private synchronized TypeFeedback snapshot() {
+        TypeFeedback saved = new TypeFeedback(hash, false);
+
+        loops.forEach((site, profile) -> {
+            TypeFeedback recording = profile.recording;
+            if (profile.trace == null || recording == null) return;
+
+            saved.hotLoops.add(site);
+            saved.merge(recording);
+        });
+
+        functions.forEach((site, layout) -> {
+            if (layout.compiled != null) saved.hotFunctions.add(site);
+        });
+
+        return saved;
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeUTF(hash);
+
+        out.writeInt(operands.size());
+        for (Map.Entry<Long, Integer> entry : operands.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeByte(entry.getValue());
+        }
+
+        out.writeInt(branches.size());
+        for (Map.Entry<Long, Boolean> entry : branches.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeByte(entry.getValue() == null ? 2 : entry.getValue() ? 1 : 0);
+        }
+
+        writeSites(out, hotLoops);
+        writeSites(out, hotFunctions);
+    }
+
+    // A missing or unreadable profile is an empty one.
+    private static Map<String, TypeFeedback> read(Path file) {
+        Map<String, TypeFeedback> profile = new LinkedHashMap<>();
+        if (!Files.exists(file)) return profile;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return profile;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                TypeFeedback feedback = new TypeFeedback(in.readUTF(), false);
+
+                int operands = in.readInt();
+                for (int j = 0; j < operands; j++) feedback.operands.put(in.readLong(), (int) in.readByte());
+
+                int branches = in.readInt();
+                for (int j = 0; j < branches; j++) {
+                    long site = in.readLong();
+                    byte taken = in.readByte();
+                    feedback.branches.put(site, taken == 2 ? null : taken == 1);
+                }
+
+                readSites(in, feedback.hotLoops);
+                readSites(in, feedback.hotFunctions);
+                profile.put(path, feedback);
+            }
+        } catch (IOException e) {
+            return new LinkedHashMap<>();
+        }
+
+        return profile;
+    }
+
+    private static void writeSites(DataOutputStream out, Set<Long> sites) throws IOException {
+        out.writeInt(sites.size());
+        for (long site : sites) out.writeLong(site);
+    }
+
+    private static void readSites(DataInputStream in, Set<Long> sites) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) sites.add(in.readLong());
+    }
+
+    public static String hash(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,845 @@
+package dev.carlinhos.lox.passes;
+
+import dev.carlinhos.lox.entities.*;
+import dev.carlinhos.lox.runtime.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles the resolved body of a hot function into a tree of closures.
+// Every decision the interpreter makes on each visit, which node it is,
+// which operator, where a variable lives, is made once here, so what runs
+// is a chain of small monomorphic calls the JIT can inline. Nodes it
+// doesn't handle are handed back to the interpreter in the same frame.
+//
+// Compiled statements return NORMAL to carry on, BREAK to leave the
+// enclosing loop, or the value of a return statement, NIL standing in for
+// nil, so no exceptions are thrown on the way out of a compiled body.
+//
+// Hot while loops in the interpreter get a trace instead: one iteration
+// runs with recording closures that note what the operands of every binary
+// expression held and which way every if went, then the loop is compiled
+// again assuming it keeps doing that. Number expressions run on unboxed
+// doubles and recorded branches are guarded. A failed guard finishes its
+// iteration on the generic code and hands the rest of the loop back to the
+// interpreter.
+public final class ClosureCompiler {
+
+    // Calls a function gets interpreted before its body is compiled,
+    // -Dlox.jit.threshold. A negative threshold never compiles.
+    static final int THRESHOLD = Integer.getInteger("lox.jit.threshold", 1000);
+
+    // Back edges a while loop takes before it's traced, -Dlox.trace.threshold.
+    // A negative threshold never traces, and a loop whose traces keep
+    // failing their guards stops being traced.
+    static final int TRACE_THRESHOLD = Integer.getInteger("lox.trace.threshold", 200);
+    private static final int MAX_TRACE_FAILURES = 3;
+
+    private static final Object NORMAL = new Object();
+    private static final Object BREAK = new Object();
+    private static final Object NIL = new Object();
+
+    // A trace whose guard failed hands its loop back to the interpreter.
+    private static final Object EXIT = new Object();
+
+    private interface Code {
+        Object run(Interpreter interpreter, Object[] frame, Cell[] upvalues);
+    }
+
+    private interface NumberCode {
+        double run(Interpreter interpreter, Object[] frame, Cell[] upvalues);
+    }
+
+    // Thrown by a number node whose operand wasn't a number this time.
+    private static final class Deopt extends RuntimeException {
+        Deopt() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Deopt DEOPT = new Deopt();
+
+    // The first guard of a trace to fail throws the trace away.
+    private static final class Guards {
+        private final LoopProfile loop;
+        boolean valid = true;
+
+        Guards(LoopProfile loop) {
+            this.loop = loop;
+        }
+
+        void fail() {
+            if (!valid) return;
+
+            valid = false;
+            loop.trace = null;
+            loop.recording = null;
+            loop.failures++;
+
+            // The loop is still hot, so it's recorded again on its next back edge.
+            loop.backEdges = TRACE_THRESHOLD;
+        }
+    }
+
+    private final Interpreter interpreter;
+
+    // Set while recording an iteration, or while compiling a trace from it.
+    private final TypeFeedback recording;
+    private final TypeFeedback profile;
+    private final Guards guards;
+
+    private ClosureCompiler(Interpreter interpreter) {
+        this(interpreter, null, null, null);
+    }
+
+    private ClosureCompiler(Interpreter interpreter, TypeFeedback recording, TypeFeedback profile, Guards guards) {
+        this.interpreter = interpreter;
+        this.recording = recording;
+        this.profile = profile;
+        this.guards = guards;
+    }
+
+    public static boolean isHot(FrameLayout layout) {
+        return THRESHOLD >= 0 && layout.calls++ >= THRESHOLD;
+    }
+
+    public static CompiledBody compile(Interpreter interpreter, List<Stmt> body) {
+        Code code = new ClosureCompiler(interpreter).block(body);
+
+        return (caller, frame, upvalues) -> {
+            Object result = code.run(caller, frame, upvalues);
+            return result == NORMAL || result == NIL ? null : result;
+        };
+    }
+
+    // Called at each back edge of an interpreted while loop. Returns whether
+    // the loop is over, false leaves the rest of it to the interpreter.
+    public static boolean traceLoop(Interpreter interpreter, Stmt.While loop, Object[] frame, Cell[] upvalues) {
+        LoopProfile profile = loop.profile;
+
+        CompiledBody trace = profile.trace;
+        if (trace == null) {
+            if (TRACE_THRESHOLD < 0 || profile.failures >= MAX_TRACE_FAILURES) return false;
+
+            // A loop that was hot in an earlier run starts with its feedback.
+            TypeFeedback recording = profile.recording;
+            if (recording == null) {
+                if (++profile.backEdges < TRACE_THRESHOLD) return false;
+                profile.backEdges = 0;
+
+                recording = new TypeFeedback();
+                Object result = record(interpreter, loop, recording, frame, upvalues);
+                if (result != null) return ended(result);
+                profile.recording = recording;
+            }
+
+            trace = profile.trace = trace(interpreter, loop, recording, profile);
+        }
+
+        Object result = trace.run(interpreter, frame, upvalues);
+        return result != EXIT && ended(result);
+    }
+
+    // Runs the next iteration with recording closures. Null means it came
+    // back around, anything else is how the loop ended.
+    private static Object record(Interpreter interpreter, Stmt.While loop, TypeFeedback recording,
+                                 Object[] frame, Cell[] upvalues) {
+        ClosureCompiler recorder = new ClosureCompiler(interpreter, recording, null, null);
+        Code condition = recorder.expression(loop.condition);
+        Code body = recorder.statement(loop.body);
+
+        if (!Interpreter.isTruthy(condition.run(interpreter, frame, upvalues))) return NORMAL;
+
+        Object result = body.run(interpreter, frame, upvalues);
+        if (result == BREAK) return NORMAL;
+        return result == NORMAL ? null : result;
+    }
+
+    private static CompiledBody trace(Interpreter interpreter, Stmt.While loop, TypeFeedback recording,
+                                      LoopProfile profile) {
+        Guards guards = new Guards(profile);
+        ClosureCompiler compiler = new ClosureCompiler(interpreter, null, recording, guards);
+        Code condition = compiler.expression(loop.condition);
+        Code body = compiler.statement(loop.body);
+
+        return (caller, frame, upvalues) -> {
+            while (Interpreter.isTruthy(condition.run(caller, frame, upvalues))) {
+                Object result = body.run(caller, frame, upvalues);
+                if (result != NORMAL) return result == BREAK ? NORMAL : result;
+                if (!guards.valid) return EXIT;
+            }
+            return NORMAL;
+        };
+    }
+
+    // A loop that ran to its end is over, a return goes on unwinding.
+    private static boolean ended(Object result) {
+        if (result == NORMAL) return true;
+        throw new Return(result == NIL ? null : result);
+    }
+
+    // Statements.
+
+    private Code statement(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression expression) {
+            Code code = expression(expression.expression);
+            return (interpreter, frame, upvalues) -> {
+                code.run(interpreter, frame, upvalues);
+                return NORMAL;
+            };
+        }
+
+        if (stmt instanceof Stmt.Print print) {
+            Code code = expression(print.expression);
+            return (interpreter, frame, upvalues) -> {
+                interpreter.print(code.run(interpreter, frame, upvalues));
+                return NORMAL;
+            };
+        }
+
+        if (stmt instanceof Stmt.Var var && var.binding != null) {
+            Binding binding = var.binding;
+            Code initializer = var.initializer != null ? expression(var.initializer) : null;
+            return (interpreter, frame, upvalues) -> {
+                Object value = initializer != null ? initializer.run(interpreter, frame, upvalues) : Interpreter.UNSET;
+                binding.initialize(frame, value);
+                return NORMAL;
+            };
+        }
+
+        if (stmt instanceof Stmt.Block block) return block(block.statements);
+        if (stmt instanceof Stmt.If branch) return ifStatement(branch);
+        if (stmt instanceof Stmt.While loop) return whileStatement(loop);
+        if (stmt instanceof Stmt.For loop) return forStatement(loop);
+
+        if (stmt instanceof Stmt.Return ret) {
+            if (ret.value == null) return (interpreter, frame, upvalues) -> NIL;
+
+            Code value = expression(ret.value);
+            return (interpreter, frame, upvalues) -> {
+                Object result = value.run(interpreter, frame, upvalues);
+                return result == null ? NIL : result;
+            };
+        }
+
+        if (stmt instanceof Stmt.Break) return (interpreter, frame, upvalues) -> BREAK;
+
+        return (interpreter, frame, upvalues) -> {
+            try {
+                interpreter.executeIn(stmt, frame, upvalues);
+                return NORMAL;
+            } catch (Return returnValue) {
+                return returnValue.value == null ? NIL : returnValue.value;
+            } catch (Break stop) {
+                return BREAK;
+            }
+        };
+    }
+
+    private Code block(List<Stmt> statements) {
+        Code[] codes = new Code[statements.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = statement(statements.get(i));
+        }
+
+        if (codes.length == 1) return codes[0];
+
+        return (interpreter, frame, upvalues) -> {
+            for (Code code : codes) {
+                Object result = code.run(interpreter, frame, upvalues);
+                if (result != NORMAL) return result;
+            }
+            return NORMAL;
+        };
+    }
+
+    private Code ifStatement(Stmt.If stmt) {
+        Code condition = expression(stmt.condition);
+        Code thenBranch = statement(stmt.thenBranch);
+
+        if (recording != null || (profile != null && profile.direction(stmt.keyword) != null)) {
+            return tracedIf(stmt, condition, thenBranch);
+        }
+
+        if (stmt.elseBranch == null) {
+            return (interpreter, frame, upvalues) -> {
+                if (Interpreter.isTruthy(condition.run(interpreter, frame, upvalues))) {
+                    return thenBranch.run(interpreter, frame, upvalues);
+                }
+                return NORMAL;
+            };
+        }
+
+        Code elseBranch = statement(stmt.elseBranch);
+        return (interpreter, frame, upvalues) -> {
+            if (Interpreter.isTruthy(condition.run(interpreter, frame, upvalues))) {
+                return thenBranch.run(interpreter, frame, upvalues);
+            }
+            return elseBranch.run(interpreter, frame, upvalues);
+        };
+    }
+
+    private Code tracedIf(Stmt.If stmt, Code condition, Code thenBranch) {
+        Code elseBranch = stmt.elseBranch != null
+                ? statement(stmt.elseBranch)
+                : (interpreter, frame, upvalues) -> NORMAL;
+
+        if (recording != null) {
+            TypeFeedback recording = this.recording;
+            return (interpreter, frame, upvalues) -> {
+                boolean taken = Interpreter.isTruthy(condition.run(interpreter, frame, upvalues));
+                recording.branch(stmt.keyword, taken);
+                return taken ? thenBranch.run(interpreter, frame, upvalues) : elseBranch.run(interpreter, frame, upvalues);
+            };
+        }
+
+        boolean expected = profile.direction(stmt.keyword);
+        Code likely = expected ? thenBranch : elseBranch;
+        Code unlikely = expected ? elseBranch : thenBranch;
+        Guards guards = this.guards;
+
+        return (interpreter, frame, upvalues) -> {
+            if (Interpreter.isTruthy(condition.run(interpreter, frame, upvalues)) == expected) {
+                return likely.run(interpreter, frame, upvalues);
+            }
+
+            guards.fail();
+            return unlikely.run(interpreter, frame, upvalues);
+        };
+    }
+
+    private Code whileStatement(Stmt.While stmt) {
+        Code condition = expression(stmt.condition);
+        Code body = statement(stmt.body);
+
+        return (interpreter, frame, upvalues) -> {
+            while (Interpreter.isTruthy(condition.run(interpreter, frame, upvalues))) {
+                Object result = body.run(interpreter, frame, upvalues);
+                if (result != NORMAL) return result == BREAK ? NORMAL : result;
+            }
+            return NORMAL;
+        };
+    }
+
+    private Code forStatement(Stmt.For stmt) {
+        Code initializer = stmt.initializer != null ? statement(stmt.initializer) : null;
+        Code condition = stmt.condition != null ? expression(stmt.condition) : null;
+        Code increment = stmt.increment != null ? expression(stmt.increment) : null;
+        Code body = statement(stmt.body);
+
+        Code loop = (interpreter, frame, upvalues) -> {
+            while (condition == null || Interpreter.isTruthy(condition.run(interpreter, frame, upvalues))) {
+                Object result = body.run(interpreter, frame, upvalues);
+                if (result != NORMAL) return result == BREAK ? NORMAL : result;
+                if (increment != null) increment.run(interpreter, frame, upvalues);
+            }
+            return NORMAL;
+        };
+
+        if (stmt.counter == null) {
+            if (initializer == null) return loop;
+
+            return (interpreter, frame, upvalues) -> {
+                initializer.run(interpreter, frame, upvalues);
+                return loop.run(interpreter, frame, upvalues);
+            };
+        }
+
+        // The same counted loop the interpreter runs: the counter is a Java
+        // double, written back to its slot only for the body.
+        Expr.Binary test = (Expr.Binary) stmt.condition;
+        Token operator = test.operator;
+        TokenType comparison = operator.type;
+        Code limit = expression(test.right);
+        Code counter = load(stmt.counter);
+        Binding binding = stmt.counter;
+        double step = stmt.step;
+
+        return (interpreter, frame, upvalues) -> {
+            if (initializer != null) initializer.run(interpreter, frame, upvalues);
+            if (!(counter.run(interpreter, frame, upvalues) instanceof Double start)) {
+                return loop.run(interpreter, frame, upvalues);
+            }
+
+            for (double i = start; ; i += step) {
+                if (!(limit.run(interpreter, frame, upvalues) instanceof Double bound)) {
+                    throw new RuntimeError(operator, "Operands must be numbers.");
+                }
+
+                boolean running = switch (comparison) {
+                    case LESS -> i < bound;
+                    case LESS_EQUAL -> i <= bound;
+                    case GREATER -> i > bound;
+                    default -> i >= bound;
+                };
+                if (!running) return NORMAL;
+
+                Object result = body.run(interpreter, frame, upvalues);
+                if (result != NORMAL) return result == BREAK ? NORMAL : result;
+                store(binding, frame, upvalues, i + step);
+            }
+        };
+    }
+
+    // Variables.
+
+    private static Code load(Binding binding) {
+        int index = binding.index;
+        if (binding.upvalue) return (interpreter, frame, upvalues) -> upvalues[index].value;
+        if (binding.captured) return (interpreter, frame, upvalues) -> ((Cell) frame[index]).value;
+        return (interpreter, frame, upvalues) -> frame[index];
+    }
+
+    private static void store(Binding binding, Object[] frame, Cell[] upvalues, Object value) {
+        if (binding.upvalue) {
+            upvalues[binding.index].value = value;
+        } else if (binding.captured) {
+            ((Cell) frame[binding.index]).value = value;
+        } else {
+            frame[binding.index] = value;
+        }
+    }
+
+    private Cell global(Token name, Cell linked) {
+        return linked != null ? linked : interpreter.globalCell(name.lexeme);
+    }
+
+    private Code variable(Expr.Variable expr) {
+        Token name = expr.name;
+
+        if (expr.binding == null) {
+            Cell cell = global(name, expr.global);
+            return (interpreter, frame, upvalues) -> Interpreter.lookUpGlobal(name, cell);
+        }
+
+        Code load = load(expr.binding);
+        if (!expr.checked) return load;
+
+        return (interpreter, frame, upvalues) ->
+                Interpreter.initialized(name, load.run(interpreter, frame, upvalues));
+    }
+
+    private Code assign(Expr.Assign expr) {
+        Code value = expression(expr.value);
+
+        if (expr.binding == null) {
+            Token name = expr.name;
+            Cell cell = global(name, expr.global);
+            return (interpreter, frame, upvalues) -> {
+                Object result = value.run(interpreter, frame, upvalues);
+                Interpreter.checkAssignable(name, cell);
+                return cell.value = result;
+            };
+        }
+
+        int index = expr.binding.index;
+        if (expr.binding.upvalue) {
+            return (interpreter, frame, upvalues) -> upvalues[index].value = value.run(interpreter, frame, upvalues);
+        }
+        if (expr.binding.captured) {
+            return (interpreter, frame, upvalues) -> ((Cell) frame[index]).value = value.run(interpreter, frame, upvalues);
+        }
+        return (interpreter, frame, upvalues) -> frame[index] = value.run(interpreter, frame, upvalues);
+    }
+
+    // Expressions.
+
+    private Code expression(Expr expr) {
+        if (profile != null) {
+            Code specialized = specialized(expr);
+            if (specialized != null) return specialized;
+        }
+
+        if (expr instanceof Expr.Literal literal) {
+            Object value = literal.value;
+            return (interpreter, frame, upvalues) -> value;
+        }
+
+        if (expr instanceof Expr.Grouping grouping) return expression(grouping.expression);
+        if (expr instanceof Expr.Variable variable) return variable(variable);
+        if (expr instanceof Expr.Assign assign) return assign(assign);
+        if (expr instanceof Expr.This self) return load(self.binding);
+        if (expr instanceof Expr.Binary binary) return binary(binary);
+        if (expr instanceof Expr.Unary unary) return unary(unary);
+        if (expr instanceof Expr.Logical logical) return logical(logical);
+        if (expr instanceof Expr.Call call) return call(call);
+        if (expr instanceof Expr.Get get) return get(get);
+        if (expr instanceof Expr.Set set) return set(set);
+        if (expr instanceof Expr.Index index) return index(index);
+        if (expr instanceof Expr.IndexSet indexSet) return indexSet(indexSet);
+
+        if (expr instanceof Expr.Ternary ternary) {
+            Code condition = expression(ternary.condition);
+            Code left = expression(ternary.left);
+            Code right = expression(ternary.right);
+            return (interpreter, frame, upvalues) -> (boolean) condition.run(interpreter, frame, upvalues)
+                    ? left.run(interpreter, frame, upvalues)
+                    : right.run(interpreter, frame, upvalues);
+        }
+
+        if (expr instanceof Expr.Comma comma) {
+            Code left = expression(comma.left);
+            Code right = expression(comma.right);
+            return (interpreter, frame, upvalues) -> {
+                left.run(interpreter, frame, upvalues);
+                return right.run(interpreter, frame, upvalues);
+            };
+        }
+
+        if (expr instanceof Expr.ListLiteral list) {
+            Code[] elements = expressions(list.elements);
+            return (interpreter, frame, upvalues) -> {
+                Object[] values = new Object[elements.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = elements[i].run(interpreter, frame, upvalues);
+                }
+                return new LoxList(values);
+            };
+        }
+
+        return (interpreter, frame, upvalues) -> interpreter.evaluateIn(expr, frame, upvalues);
+    }
+
+    private Code[] expressions(List<Expr> exprs) {
+        Code[] codes = new Code[exprs.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = expression(exprs.get(i));
+        }
+        return codes;
+    }
+
+    private Code binary(Expr.Binary expr) {
+        Code left = recorded(expr.operator, expression(expr.left),
+                TypeFeedback.LEFT_NUMBER, TypeFeedback.LEFT_OTHER);
+        Code right = recorded(expr.operator, expression(expr.right),
+                TypeFeedback.RIGHT_NUMBER, TypeFeedback.RIGHT_OTHER);
+        Token operator = expr.operator;
+
+        return switch (operator.type) {
+            case GREATER -> (interpreter, frame, upvalues) -> {
+                Object a = left.run(interpreter, frame, upvalues);
+                Object b = right.run(interpreter, frame, upvalues);
+                if (a instanceof Double x && b instanceof Double y) return x > y;
+                throw numbersExpected(operator);
+            };
+            case GREATER_EQUAL -> (interpreter, frame, upvalues) -> {
+                Object a = left.run(interpreter, frame, upvalues);
+                Object b = right.run(interpreter, frame, upvalues);
+                if (a instanceof Double x && b instanceof Double y) return x >= y;
+                throw numbersExpected(operator);
+            };
+            case LESS -> (interpreter, frame, upvalues) -> {
+                Object a = left.run(interpreter, frame, upvalues);
+                Object b = right.run(interpreter, frame, upvalues);
+                if (a instanceof Double x && b instanceof Double y) return x < y;
+                throw numbersExpected(operator);
+            };
+            case LESS_EQUAL -> (interpreter, frame, upvalues) -> {
+                Object a = left.run(interpreter, frame, upvalues);
+                Object b = right.run(interpreter, frame, upvalues);
+                if (a instanceof Double x && b instanceof Double y) return x <= y;
+                throw numbersExpected(operator);
+            };
+            case MINUS -> (interpreter, frame, upvalues) -> {
+                Object a = left.run(interpreter, frame, upvalues);
+                Object b = right.run(interpreter, frame, upvalues);
+                if (a instanceof Double x && b instanceof Double y) return x - y;
+                throw numbersExpected(operator);
+            };
+            case STAR -> (interpreter, frame, upvalues) -> {
+                Object a = left.run(interpreter, frame, upvalues);
+                Object b = right.run(interpreter, frame, upvalues);
+                if (a instanceof Double x && b instanceof Double y) return x * y;
+                throw numbersExpected(operator);
+            };
+            case SLASH -> (interpreter, frame, upvalues) -> {
+                Object a = left.run(interpreter, frame, upvalues);
+                Object b = right.run(interpreter, frame, upvalues);
+                if (!(a instanceof Double x && b instanceof Double y)) throw numbersExpected(operator);
+                if (y == 0) throw new RuntimeError(operator, "Division by zero.");
+                return x / y;
+            };
+            case PLUS -> (interpreter, frame, upvalues) -> {
+                Object a = left.run(interpreter, frame, upvalues);
+                Object b = right.run(interpreter, frame, upvalues);
+                if (a instanceof CharSequence || b instanceof CharSequence) return LoxString.concat(a, b);
+                if (a instanceof Double x && b instanceof Double y) return x + y;
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+            };
+            case BANG_EQUAL -> (interpreter, frame, upvalues) ->
+                    !Interpreter.isEqual(left.run(interpreter, frame, upvalues), right.run(interpreter, frame, upvalues));
+            case EQUAL_EQUAL -> (interpreter, frame, upvalues) ->
+                    Interpreter.isEqual(left.run(interpreter, frame, upvalues), right.run(interpreter, frame, upvalues));
+            default -> (interpreter, frame, upvalues) -> interpreter.evaluateIn(expr, frame, upvalues);
+        };
+    }
+
+    // Traces.
+
+    // Notes whether an operand held a number, while recording.
+    private Code recorded(Token operator, Code operand, int number, int other) {
+        if (recording == null) return operand;
+
+        TypeFeedback recording = this.recording;
+        return (interpreter, frame, upvalues) -> {
+            Object value = operand.run(interpreter, frame, upvalues);
+            recording.operand(operator, value instanceof Double ? number : other);
+            return value;
+        };
+    }
+
+    // Arithmetic and comparisons whose operands were only ever numbers run
+    // on unboxed doubles, with the generic code as the way out. Number trees
+    // are literals, variables and arithmetic, which have no side effects, so
+    // one whose guard fails can run again on the generic code.
+    private Code specialized(Expr expr) {
+        if (!(expr instanceof Expr.Binary binary) || !hasNumbers(binary)) return null;
+
+        TokenType type = binary.operator.type;
+        if (isComparison(type)) {
+            return compare(type, number(binary.left), number(binary.right), binary(binary));
+        }
+        if (!isArithmetic(type)) return null;
+
+        NumberCode number = number(binary);
+        Code generic = binary(binary);
+        Guards guards = this.guards;
+        return (interpreter, frame, upvalues) -> {
+            try {
+                return number.run(interpreter, frame, upvalues);
+            } catch (Deopt deopt) {
+                guards.fail();
+                return generic.run(interpreter, frame, upvalues);
+            }
+        };
+    }
+
+    private boolean hasNumbers(Expr.Binary binary) {
+        return profile.numbers(binary.operator) && isPure(binary.left) && isPure(binary.right);
+    }
+
+    private static boolean isComparison(TokenType type) {
+        return type == TokenType.LESS || type == TokenType.LESS_EQUAL
+                || type == TokenType.GREATER || type == TokenType.GREATER_EQUAL;
+    }
+
+    private static boolean isArithmetic(TokenType type) {
+        return type == TokenType.PLUS || type == TokenType.MINUS
+                || type == TokenType.STAR || type == TokenType.SLASH;
+    }
+
+    private static boolean isPure(Expr expr) {
+        if (expr instanceof Expr.Literal literal) return literal.value instanceof Double;
+        if (expr instanceof Expr.Variable) return true;
+        if (expr instanceof Expr.Grouping grouping) return isPure(grouping.expression);
+
+        if (expr instanceof Expr.Unary unary) {
+            return unary.operator.type == TokenType.MINUS && isPure(unary.right);
+        }
+
+        if (expr instanceof Expr.Binary binary) {
+            return isArithmetic(binary.operator.type) && isPure(binary.left) && isPure(binary.right);
+        }
+
+        return false;
+    }
+
+    private NumberCode number(Expr expr) {
+        if (expr instanceof Expr.Literal literal) {
+            double value = (Double) literal.value;
+            return (interpreter, frame, upvalues) -> value;
+        }
+
+        if (expr instanceof Expr.Grouping grouping) return number(grouping.expression);
+
+        if (expr instanceof Expr.Unary unary) {
+            NumberCode right = number(unary.right);
+            return (interpreter, frame, upvalues) -> -right.run(interpreter, frame, upvalues);
+        }
+
+        // Variables, and arithmetic the recording didn't see numbers in, are
+        // checked when they're read.
+        if (!(expr instanceof Expr.Binary binary) || !profile.numbers(binary.operator)) {
+            Code code = expr instanceof Expr.Variable variable ? variable(variable) : binary((Expr.Binary) expr);
+            return (interpreter, frame, upvalues) -> {
+                if (code.run(interpreter, frame, upvalues) instanceof Double value) return value;
+                throw DEOPT;
+            };
+        }
+
+        NumberCode left = number(binary.left);
+        NumberCode right = number(binary.right);
+        Token operator = binary.operator;
+
+        return switch (operator.type) {
+            case PLUS -> (interpreter, frame, upvalues) ->
+                    left.run(interpreter, frame, upvalues) + right.run(interpreter, frame, upvalues);
+            case MINUS -> (interpreter, frame, upvalues) ->
+                    left.run(interpreter, frame, upvalues) - right.run(interpreter, frame, upvalues);
+            case STAR -> (interpreter, frame, upvalues) ->
+                    left.run(interpreter, frame, upvalues) * right.run(interpreter, frame, upvalues);
+            default -> (interpreter, frame, upvalues) -> {
+                double x = left.run(interpreter, frame, upvalues);
+                double y = right.run(interpreter, frame, upvalues);
+                if (y == 0) throw new RuntimeError(operator, "Division by zero.");
+                return x / y;
+            };
+        };
+    }
+
+    private Code compare(TokenType type, NumberCode left, NumberCode right, Code generic) {
+        Guards guards = this.guards;
+        return (interpreter, frame, upvalues) -> {
+            try {
+                double x = left.run(interpreter, frame, upvalues);
+                double y = right.run(interpreter, frame, upvalues);
+                return switch (type) {
+                    case LESS -> x < y;
+                    case LESS_EQUAL -> x <= y;
+                    case GREATER -> x > y;
+                    default -> x >= y;
+                };
+            } catch (Deopt deopt) {
+                guards.fail();
+                return generic.run(interpreter, frame, upvalues);
+            }
+        };
+    }
+
+    private static RuntimeError numbersExpected(Token operator) {
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    private Code unary(Expr.Unary expr) {
+        Code right = expression(expr.right);
+        Token operator = expr.operator;
+
+        if (operator.type == TokenType.BANG) {
+            return (interpreter, frame, upvalues) -> !Interpreter.isTruthy(right.run(interpreter, frame, upvalues));
+        }
+
+        if (operator.type == TokenType.MINUS) {
+            return (interpreter, frame, upvalues) -> {
+                if (right.run(interpreter, frame, upvalues) instanceof Double value) return -value;
+                throw new RuntimeError(operator, "Operand must be a number.");
+            };
+        }
+
+        return (interpreter, frame, upvalues) -> interpreter.evaluateIn(expr, frame, upvalues);
+    }
+
+    private Code logical(Expr.Logical expr) {
+        Code left = expression(expr.left);
+        Code right = expression(expr.right);
+
+        if (expr.operator.type == TokenType.OR) {
+            return (interpreter, frame, upvalues) -> {
+                Object value = left.run(interpreter, frame, upvalues);
+                return Interpreter.isTruthy(value) ? value : right.run(interpreter, frame, upvalues);
+            };
+        }
+
+        return (interpreter, frame, upvalues) -> {
+            Object value = left.run(interpreter, frame, upvalues);
+            return !Interpreter.isTruthy(value) ? value : right.run(interpreter, frame, upvalues);
+        };
+    }
+
+    private Code call(Expr.Call expr) {
+        Code callee = expression(expr.callee);
+        Code[] arguments = expressions(expr.arguments);
+        Token paren = expr.paren;
+
+        return (interpreter, frame, upvalues) -> {
+            Object target = callee.run(interpreter, frame, upvalues);
+
+            List<Object> values = new ArrayList<>(arguments.length);
+            for (Code argument : arguments) {
+                values.add(argument.run(interpreter, frame, upvalues));
+            }
+
+            if (!(target instanceof LoxCallable function)) {
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+
+            if (values.size() != function.arity()) {
+                throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + values.size() + ".");
+            }
+
+            try {
+                return function.call(interpreter, values);
+            } catch (RuntimeError error) {
+                if (error.token != null) throw error;
+                throw new RuntimeError(paren, error.getMessage());
+            }
+        };
+    }
+
+    private Code get(Expr.Get expr) {
+        Code object = expression(expr.object);
+        Token name = expr.name;
+
+        return (interpreter, frame, upvalues) -> {
+            if (object.run(interpreter, frame, upvalues) instanceof LoxObject target) return target.get(name);
+            throw new RuntimeError(name, "Only instances have properties.");
+        };
+    }
+
+    private Code set(Expr.Set expr) {
+        Code object = expression(expr.object);
+        Code value = expression(expr.value);
+        Token name = expr.name;
+
+        return (interpreter, frame, upvalues) -> {
+            if (!(object.run(interpreter, frame, upvalues) instanceof LoxObject target)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.run(interpreter, frame, upvalues);
+            target.set(name, result);
+            return result;
+        };
+    }
+
+    private Code index(Expr.Index expr) {
+        Code object = expression(expr.object);
+        Code index = expression(expr.index);
+        Token bracket = expr.bracket;
+
+        return (interpreter, frame, upvalues) -> {
+            Object target = object.run(interpreter, frame, upvalues);
+            Object key = index.run(interpreter, frame, upvalues);
+
+            if (target instanceof LoxList list) return list.get(list.index(bracket, key));
+            if (target instanceof LoxMap map) return map.get(bracket, key);
+
+            throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+        };
+    }
+
+    private Code indexSet(Expr.IndexSet expr) {
+        Code object = expression(expr.object);
+        Code index = expression(expr.index);
+        Code value = expression(expr.value);
+        Token bracket = expr.bracket;
+
+        return (interpreter, frame, upvalues) -> {
+            Object target = object.run(interpreter, frame, upvalues);
+            Object key = index.run(interpreter, frame, upvalues);
+
+            if (target instanceof LoxList list) {
+                Object result = value.run(interpreter, frame, upvalues);
+                list.set(list.index(bracket, key), result);
+                return result;
+            }
+
+            if (target instanceof LoxMap map) {
+                Object result = value.run(interpreter, frame, upvalues);
+                map.put(bracket, key, result);
+                return result;
+            }
+
+            throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+        };
+    }
+}
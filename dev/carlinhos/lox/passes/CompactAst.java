@@ -0,0 +1,637 @@
+package dev.carlinhos.lox.passes;
+
+import dev.carlinhos.lox.entities.Expr;
+import dev.carlinhos.lox.entities.Stmt;
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.entities.TokenType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A program's AST flattened into int arenas. A node is its kind followed by
+// its fields: child nodes are offsets into the same arena, tokens are rows
+// of the token table and literals and lexemes are indexes into a constant
+// pool, so repeated names are stored once. Top level statements decode back
+// into regular nodes one at a time, which is what the resolver and the
+// interpreter walk.
+//
+// Tokens kept by the AST are names, operators and punctuation, which never
+// carry a literal, so the table doesn't store one. They all come from one
+// source, so the module they name is stored once.
+public class CompactAst {
+
+    private enum Kind {
+        GROUPING, ASSIGN, TERNARY, VARIABLE, LOGICAL, BINARY, UNARY, COMMA, CALL, LAMBDA_EXPR, LITERAL,
+        GET, SET, LIST_LITERAL, MAP_LITERAL, INDEX, INDEX_SET, SUPER, THIS,
+        CLASS, VAR, IMPORT, FUNCTION, LAMBDA_STMT, IF, PRINT, RETURN, YIELD, BREAK, WHILE, FOR, FOR_IN, BLOCK,
+        EXPRESSION
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    // Starts a stored AST, followed by a version bumped whenever the
+    // encoding or the node kinds change.
+    private static final int MAGIC = 0x4c4f5843;
+    private static final int VERSION = 3;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    // Marks an absent optional child.
+    private static final int NONE = -1;
+
+    private int[] nodes = new int[1024];
+    private int nodeCount = 0;
+
+    // A token row is its type, its line and lexeme packed in a long, and its
+    // column.
+    private byte[] tokenTypes = new byte[256];
+    private long[] tokenLinesAndLexemes = new long[256];
+    private int[] tokenColumns = new int[256];
+    private int tokenCount = 0;
+    private String file;
+
+    private final List<Object> constants = new ArrayList<>();
+    private Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    private int[] statements = new int[64];
+    private int statementCount = 0;
+
+    private final Encoder encoder = new Encoder();
+
+    // Where function nodes went while encoding, and the function nodes met
+    // while decoding, by offset. Only kept for heap images, which point at
+    // the code of the closures they hold this way.
+    private Map<Object, Integer> functionOffsets;
+    private Map<Integer, Object> decodedFunctions;
+
+    public void add(Stmt stmt) {
+        if (statementCount == statements.length) {
+            statements = Arrays.copyOf(statements, Math.max(statementCount * 2, 64));
+        }
+        statements[statementCount++] = stmt.accept(encoder);
+    }
+
+    // Drops the growth slack and the lookup used for encoding, once the
+    // whole program is in.
+    public void trim() {
+        nodes = Arrays.copyOf(nodes, nodeCount);
+        tokenTypes = Arrays.copyOf(tokenTypes, tokenCount);
+        tokenLinesAndLexemes = Arrays.copyOf(tokenLinesAndLexemes, tokenCount);
+        tokenColumns = Arrays.copyOf(tokenColumns, tokenCount);
+        statements = Arrays.copyOf(statements, statementCount);
+        ((ArrayList<Object>) constants).trimToSize();
+        constantIndexes = null;
+    }
+
+    public int size() {
+        return statementCount;
+    }
+
+    // A fresh copy of the index-th top level statement.
+    public Stmt statement(int index) {
+        return stmt(statements[index]);
+    }
+
+    // The same, adding the function nodes in it to functions by offset.
+    public Stmt statement(int index, Map<Integer, Object> functions) {
+        decodedFunctions = functions;
+        try {
+            return stmt(statements[index]);
+        } finally {
+            decodedFunctions = null;
+        }
+    }
+
+    // Functions.
+
+    public void trackFunctions() {
+        functionOffsets = new IdentityHashMap<>();
+    }
+
+    // The offset of a function node encoded since trackFunctions, or -1.
+    public int offsetOf(Object function) {
+        Integer offset = functionOffsets.get(function);
+        return offset == null ? NONE : offset;
+    }
+
+    // The top level statement a node is part of. A statement is encoded
+    // after its children and before the next statement.
+    public int statementOf(int offset) {
+        int index = Arrays.binarySearch(statements, 0, statementCount, offset);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    // Storage, so a program can be parsed once and run many times.
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        writeInts(out, nodes, nodeCount);
+        writeInts(out, statements, statementCount);
+
+        out.writeInt(tokenCount);
+        out.write(tokenTypes, 0, tokenCount);
+        ByteBuffer rows = ByteBuffer.allocate(tokenCount * Long.BYTES);
+        rows.asLongBuffer().put(tokenLinesAndLexemes, 0, tokenCount);
+        out.write(rows.array());
+        writeInts(out, tokenColumns, tokenCount);
+
+        // Literals are nil, booleans, numbers and strings.
+        out.writeInt(constants.size());
+        for (Object constant : constants) {
+            if (constant == null) {
+                out.writeByte(0);
+            } else if (constant instanceof Boolean value) {
+                out.writeByte(1);
+                out.writeBoolean(value);
+            } else if (constant instanceof Double value) {
+                out.writeByte(2);
+                out.writeDouble(value);
+            } else {
+                byte[] text = ((String) constant).getBytes(StandardCharsets.UTF_8);
+                out.writeByte(3);
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        }
+
+        out.writeBoolean(file != null);
+        if (file != null) out.writeUTF(file);
+    }
+
+    public static CompactAst read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a compiled program for this version of Lox.");
+        }
+
+        CompactAst ast = new CompactAst();
+        ast.nodes = readInts(in);
+        ast.nodeCount = ast.nodes.length;
+        ast.statements = readInts(in);
+        ast.statementCount = ast.statements.length;
+
+        ast.tokenCount = in.readInt();
+        ast.tokenTypes = in.readNBytes(ast.tokenCount);
+        ast.tokenLinesAndLexemes = new long[ast.tokenCount];
+        ByteBuffer.wrap(in.readNBytes(ast.tokenCount * Long.BYTES)).asLongBuffer().get(ast.tokenLinesAndLexemes);
+        ast.tokenColumns = readInts(in);
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            ast.constants.add(switch (in.readByte()) {
+                case 0 -> null;
+                case 1 -> in.readBoolean();
+                case 2 -> in.readDouble();
+                case 3 -> new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+                default -> throw new IOException("Corrupt constant pool.");
+            });
+        }
+
+        if (in.readBoolean()) ast.file = in.readUTF();
+
+        ast.constantIndexes = null;
+        return ast;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(count * Integer.BYTES);
+        bytes.asIntBuffer().put(values, 0, count);
+        out.writeInt(count);
+        out.write(bytes.array());
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        ByteBuffer.wrap(in.readNBytes(values.length * Integer.BYTES)).asIntBuffer().get(values);
+        return values;
+    }
+
+    // Encoding.
+
+    private int node(Kind kind, int... fields) {
+        int offset = nodeCount;
+        ensureNodes(1 + fields.length);
+
+        nodes[nodeCount++] = kind.ordinal();
+        System.arraycopy(fields, 0, nodes, nodeCount, fields.length);
+        nodeCount += fields.length;
+        return offset;
+    }
+
+    private void ensureNodes(int extra) {
+        if (nodeCount + extra <= nodes.length) return;
+        nodes = Arrays.copyOf(nodes, Math.max(Math.max(nodes.length * 2, 1024), nodeCount + extra));
+    }
+
+    private int constant(Object value) {
+        if (constantIndexes == null) {
+            constantIndexes = new HashMap<>();
+            for (int i = 0; i < constants.size(); i++) constantIndexes.put(constants.get(i), i);
+        }
+
+        Integer index = constantIndexes.get(value);
+        if (index != null) return index;
+
+        constants.add(value);
+        constantIndexes.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    private int token(Token token) {
+        if (tokenCount == tokenTypes.length) {
+            int capacity = Math.max(tokenCount * 2, 256);
+            tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+            tokenLinesAndLexemes = Arrays.copyOf(tokenLinesAndLexemes, capacity);
+            tokenColumns = Arrays.copyOf(tokenColumns, capacity);
+        }
+
+        tokenTypes[tokenCount] = (byte) token.type.ordinal();
+        tokenLinesAndLexemes[tokenCount] = (long) token.line << 32 | constant(token.lexeme);
+        tokenColumns[tokenCount] = token.column;
+        file = token.file;
+        return tokenCount++;
+    }
+
+    private class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+
+        private int expr(Expr expr) {
+            return expr == null ? NONE : expr.accept(this);
+        }
+
+        private int stmt(Stmt stmt) {
+            return stmt == null ? NONE : stmt.accept(this);
+        }
+
+        // A list is its length followed by its elements.
+        private int[] exprs(List<Expr> exprs, int... prefix) {
+            int[] fields = Arrays.copyOf(prefix, prefix.length + 1 + exprs.size());
+            fields[prefix.length] = exprs.size();
+            for (int i = 0; i < exprs.size(); i++) {
+                fields[prefix.length + 1 + i] = expr(exprs.get(i));
+            }
+
+            return fields;
+        }
+
+        private int[] function(List<Token> params, List<Stmt> body, int... prefix) {
+            int[] fields = Arrays.copyOf(prefix, prefix.length + 2 + params.size() + body.size());
+            int at = prefix.length;
+
+            fields[at++] = params.size();
+            for (Token param : params) fields[at++] = token(param);
+
+            fields[at++] = body.size();
+            for (Stmt stmt : body) fields[at++] = stmt(stmt);
+
+            return fields;
+        }
+
+        private int tracked(Object function, int offset) {
+            if (functionOffsets != null) functionOffsets.put(function, offset);
+            return offset;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return node(Kind.GROUPING, expr(expr.expression));
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            int value = expr(expr.value);
+            return node(Kind.ASSIGN, token(expr.name), value);
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.Ternary expr) {
+            return node(Kind.TERNARY, expr(expr.condition), expr(expr.left), expr(expr.right));
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return node(Kind.VARIABLE, token(expr.name));
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            int left = expr(expr.left);
+            int right = expr(expr.right);
+            return node(Kind.LOGICAL, left, token(expr.operator), right);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            int left = expr(expr.left);
+            int right = expr(expr.right);
+            return node(Kind.BINARY, left, token(expr.operator), right);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            int right = expr(expr.right);
+            return node(Kind.UNARY, token(expr.operator), right);
+        }
+
+        @Override
+        public Integer visitCommaExpr(Expr.Comma expr) {
+            return node(Kind.COMMA, expr(expr.left), expr(expr.right));
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int callee = expr(expr.callee);
+            return node(Kind.CALL, exprs(expr.arguments, callee, token(expr.paren)));
+        }
+
+        @Override
+        public Integer visitLambdaExpr(Expr.Lambda expr) {
+            return tracked(expr, node(Kind.LAMBDA_EXPR, function(expr.params, expr.body)));
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return node(Kind.LITERAL, constant(expr.value));
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            int object = expr(expr.object);
+            return node(Kind.GET, object, token(expr.name));
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            int object = expr(expr.object);
+            int value = expr(expr.value);
+            return node(Kind.SET, object, token(expr.name), value);
+        }
+
+        @Override
+        public Integer visitListLiteralExpr(Expr.ListLiteral expr) {
+            return node(Kind.LIST_LITERAL, exprs(expr.elements, token(expr.bracket)));
+        }
+
+        @Override
+        public Integer visitMapLiteralExpr(Expr.MapLiteral expr) {
+            int[] fields = new int[2 + 2 * expr.keys.size()];
+            fields[0] = token(expr.brace);
+            fields[1] = expr.keys.size();
+            for (int i = 0; i < expr.keys.size(); i++) {
+                fields[2 + 2 * i] = expr(expr.keys.get(i));
+                fields[3 + 2 * i] = expr(expr.values.get(i));
+            }
+
+            return node(Kind.MAP_LITERAL, fields);
+        }
+
+        @Override
+        public Integer visitIndexExpr(Expr.Index expr) {
+            int object = expr(expr.object);
+            int index = expr(expr.index);
+            return node(Kind.INDEX, object, token(expr.bracket), index);
+        }
+
+        @Override
+        public Integer visitIndexSetExpr(Expr.IndexSet expr) {
+            int object = expr(expr.object);
+            int index = expr(expr.index);
+            int value = expr(expr.value);
+            return node(Kind.INDEX_SET, object, token(expr.bracket), index, value);
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            return node(Kind.SUPER, token(expr.keyword), token(expr.method));
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            return node(Kind.THIS, token(expr.keyword));
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            int[] fields = new int[3 + stmt.methods.size()];
+            fields[0] = token(stmt.name);
+            fields[1] = expr(stmt.superclass);
+            fields[2] = stmt.methods.size();
+            for (int i = 0; i < stmt.methods.size(); i++) {
+                fields[3 + i] = stmt(stmt.methods.get(i));
+            }
+
+            return node(Kind.CLASS, fields);
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            int initializer = expr(stmt.initializer);
+            return node(Kind.VAR, token(stmt.name), initializer);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            return tracked(stmt, node(Kind.FUNCTION, function(stmt.params, stmt.body, token(stmt.name))));
+        }
+
+        @Override
+        public Integer visitLambdaStmt(Stmt.Lambda stmt) {
+            return tracked(stmt, node(Kind.LAMBDA_STMT, function(stmt.params, stmt.body)));
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            return node(Kind.IF, token(stmt.keyword), expr(stmt.condition), stmt(stmt.thenBranch),
+                    stmt(stmt.elseBranch));
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            return node(Kind.PRINT, expr(stmt.expression));
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            int value = expr(stmt.value);
+            return node(Kind.RETURN, token(stmt.keyword), value);
+        }
+
+        @Override
+        public Integer visitYieldStmt(Stmt.Yield stmt) {
+            int value = expr(stmt.value);
+            return node(Kind.YIELD, token(stmt.keyword), value);
+        }
+
+        @Override
+        public Integer visitImportStmt(Stmt.Import stmt) {
+            return node(Kind.IMPORT, token(stmt.keyword), constant(stmt.path));
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt) {
+            return node(Kind.BREAK, token(stmt.keyword));
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            return node(Kind.WHILE, token(stmt.keyword), expr(stmt.condition), stmt(stmt.body));
+        }
+
+        @Override
+        public Integer visitForStmt(Stmt.For stmt) {
+            return node(Kind.FOR, stmt(stmt.initializer), expr(stmt.condition), expr(stmt.increment), stmt(stmt.body));
+        }
+
+        @Override
+        public Integer visitForInStmt(Stmt.ForIn stmt) {
+            int iterable = expr(stmt.iterable);
+            int body = stmt(stmt.body);
+            return node(Kind.FOR_IN, token(stmt.name), iterable, body);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            int[] fields = new int[1 + stmt.statements.size()];
+            fields[0] = stmt.statements.size();
+            for (int i = 0; i < stmt.statements.size(); i++) {
+                fields[1 + i] = stmt(stmt.statements.get(i));
+            }
+
+            return node(Kind.BLOCK, fields);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            return node(Kind.EXPRESSION, expr(stmt.expression));
+        }
+    }
+
+    // Decoding.
+
+    private <T> T decoded(int offset, T function) {
+        if (decodedFunctions != null) decodedFunctions.put(offset, function);
+        return function;
+    }
+
+    private Token tokenAt(int index) {
+        long packed = tokenLinesAndLexemes[index];
+        return new Token(TOKEN_TYPES[tokenTypes[index]], (String) constants.get((int) packed), null,
+                (int) (packed >>> 32), tokenColumns[index], file);
+    }
+
+    private List<Expr> exprs(int at) {
+        int count = nodes[at];
+        List<Expr> exprs = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            exprs.add(expr(nodes[at + i]));
+        }
+
+        return exprs;
+    }
+
+    private List<Token> params(int at) {
+        int count = nodes[at];
+        List<Token> params = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            params.add(tokenAt(nodes[at + i]));
+        }
+
+        return params;
+    }
+
+    // The body follows the parameter list.
+    private List<Stmt> body(int params) {
+        int at = params + 1 + nodes[params];
+        int count = nodes[at];
+        List<Stmt> body = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            body.add(stmt(nodes[at + i]));
+        }
+
+        return body;
+    }
+
+    private Expr expr(int offset) {
+        if (offset == NONE) return null;
+
+        int at = offset + 1;
+        return switch (KINDS[nodes[offset]]) {
+            case GROUPING -> new Expr.Grouping(expr(nodes[at]));
+            case ASSIGN -> new Expr.Assign(tokenAt(nodes[at]), expr(nodes[at + 1]));
+            case TERNARY -> new Expr.Ternary(expr(nodes[at]), expr(nodes[at + 1]), expr(nodes[at + 2]));
+            case VARIABLE -> new Expr.Variable(tokenAt(nodes[at]));
+            case LOGICAL -> new Expr.Logical(expr(nodes[at]), tokenAt(nodes[at + 1]), expr(nodes[at + 2]));
+            case BINARY -> new Expr.Binary(expr(nodes[at]), tokenAt(nodes[at + 1]), expr(nodes[at + 2]));
+            case UNARY -> new Expr.Unary(tokenAt(nodes[at]), expr(nodes[at + 1]));
+            case COMMA -> new Expr.Comma(expr(nodes[at]), expr(nodes[at + 1]));
+            case CALL -> new Expr.Call(expr(nodes[at]), tokenAt(nodes[at + 1]), exprs(at + 2));
+            case LAMBDA_EXPR -> decoded(offset, new Expr.Lambda(params(at), body(at)));
+            case LITERAL -> new Expr.Literal(constants.get(nodes[at]));
+            case GET -> new Expr.Get(expr(nodes[at]), tokenAt(nodes[at + 1]));
+            case SET -> new Expr.Set(expr(nodes[at]), tokenAt(nodes[at + 1]), expr(nodes[at + 2]));
+            case LIST_LITERAL -> new Expr.ListLiteral(tokenAt(nodes[at]), exprs(at + 1));
+            case MAP_LITERAL -> {
+                int count = nodes[at + 1];
+                List<Expr> keys = new ArrayList<>(count);
+                List<Expr> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    keys.add(expr(nodes[at + 2 + 2 * i]));
+                    values.add(expr(nodes[at + 3 + 2 * i]));
+                }
+                yield new Expr.MapLiteral(tokenAt(nodes[at]), keys, values);
+            }
+            case INDEX -> new Expr.Index(expr(nodes[at]), tokenAt(nodes[at + 1]), expr(nodes[at + 2]));
+            case INDEX_SET -> new Expr.IndexSet(expr(nodes[at]), tokenAt(nodes[at + 1]), expr(nodes[at + 2]),
+                    expr(nodes[at + 3]));
+            case SUPER -> new Expr.Super(tokenAt(nodes[at]), tokenAt(nodes[at + 1]));
+            case THIS -> new Expr.This(tokenAt(nodes[at]));
+            default -> throw new IllegalStateException("Not an expression node.");
+        };
+    }
+
+    private Stmt stmt(int offset) {
+        if (offset == NONE) return null;
+
+        int at = offset + 1;
+        return switch (KINDS[nodes[offset]]) {
+            case CLASS -> {
+                int count = nodes[at + 2];
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    methods.add((Stmt.Function) stmt(nodes[at + 3 + i]));
+                }
+                yield new Stmt.Class(tokenAt(nodes[at]), (Expr.Variable) expr(nodes[at + 1]), methods);
+            }
+            case VAR -> new Stmt.Var(tokenAt(nodes[at]), expr(nodes[at + 1]));
+            case IMPORT -> new Stmt.Import(tokenAt(nodes[at]), (String) constants.get(nodes[at + 1]));
+            case FUNCTION -> decoded(offset, new Stmt.Function(tokenAt(nodes[at]), params(at + 1), body(at + 1)));
+            case LAMBDA_STMT -> decoded(offset, new Stmt.Lambda(params(at), body(at)));
+            case IF -> new Stmt.If(tokenAt(nodes[at]), expr(nodes[at + 1]), stmt(nodes[at + 2]), stmt(nodes[at + 3]));
+            case PRINT -> new Stmt.Print(expr(nodes[at]));
+            case RETURN -> new Stmt.Return(tokenAt(nodes[at]), expr(nodes[at + 1]));
+            case YIELD -> new Stmt.Yield(tokenAt(nodes[at]), expr(nodes[at + 1]));
+            case BREAK -> new Stmt.Break(tokenAt(nodes[at]));
+            case WHILE -> new Stmt.While(tokenAt(nodes[at]), expr(nodes[at + 1]), stmt(nodes[at + 2]));
+            case FOR -> new Stmt.For(stmt(nodes[at]), expr(nodes[at + 1]), expr(nodes[at + 2]), stmt(nodes[at + 3]));
+            case FOR_IN -> new Stmt.ForIn(tokenAt(nodes[at]), expr(nodes[at + 1]), stmt(nodes[at + 2]));
+            case BLOCK -> {
+                int count = nodes[at];
+                List<Stmt> statements = new ArrayList<>(count);
+                for (int i = 1; i <= count; i++) {
+                    statements.add(stmt(nodes[at + i]));
+                }
+                yield new Stmt.Block(statements);
+            }
+            case EXPRESSION -> new Stmt.Expression(expr(nodes[at]));
+            default -> throw new IllegalStateException("Not a statement node.");
+        };
+    }
+}
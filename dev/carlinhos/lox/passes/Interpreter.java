@@ -4,74 +4,261 @@ import dev.carlinhos.lox.Lox;
 import dev.carlinhos.lox.entities.*;
 import dev.carlinhos.lox.runtime.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // Marks a global that is referenced but not defined (yet).
+    static final Object UNDEFINED = new Object();
+
+    // Marks a variable declared without an initializer, nil is a real value.
+    static final Object UNSET = new Object();
+
+    // Globals live in cells that each variable site links to on first use.
+    // Locals live in the slots of the current frame, or in the closure's
+    // upvalues when an enclosing function declared them.
+    private final Map<String, Cell> globals;
+    private Object[] frame;
+    private Cell[] upvalues;
+    private int scriptSize = 0;
+    private final OutputSink output;
+    // An interpreter that made its own sink flushes it after each run,
+    // nothing else can.
+    private boolean ownsOutput = false;
+
+    // Imports are shared by every module in one engine, and relative ones are
+    // looked up next to the script or module doing the importing.
+    private final ModuleRegistry modules;
+    private Path directory;
+
+    // What the resolver hands the loops and functions of this source.
+    TypeFeedback feedback = new TypeFeedback();
+
+    // The generator whose body this interpreter runs, if any.
+    private LoxGenerator.Producer generator;
 
     public Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+        this(OutputSink.fromProperties(System.out));
+        ownsOutput = true;
+    }
+
+    public Interpreter(OutputSink output) {
+        this(output, new ModuleRegistry(output), Path.of(""));
+    }
+
+    // A module's interpreter has globals of its own.
+    Interpreter(OutputSink output, ModuleRegistry modules, Path directory) {
+        globals = new ConcurrentHashMap<>();
+        this.output = output;
+        this.modules = modules;
+        this.directory = directory;
+
+        defineGlobal("clock", new LoxNative(0, (interpreter, arguments) ->
+                (double) System.currentTimeMillis() / 1000.0));
+
+        defineGlobal("Atomic", new LoxNative(1, (interpreter, arguments) ->
+                new LoxAtomic(arguments.get(0))));
+        defineGlobal("ConcurrentMap", new LoxNative(0, (interpreter, arguments) ->
+                new LoxConcurrentMap()));
+
+        defineGlobal("List", new LoxNative(0, (interpreter, arguments) -> new LoxList()));
+        defineGlobal("parallelMap", new LoxNative(2, (interpreter, arguments) ->
+                Parallel.map(interpreter, LoxNative.list(arguments.get(0), "First argument"),
+                        LoxNative.callable(arguments.get(1), 1, "Mapper"))));
+        defineGlobal("parallelFilter", new LoxNative(2, (interpreter, arguments) ->
+                Parallel.filter(interpreter, LoxNative.list(arguments.get(0), "First argument"),
+                        LoxNative.callable(arguments.get(1), 1, "Predicate"))));
+        defineGlobal("parallelReduce", new LoxNative(2, (interpreter, arguments) ->
+                Parallel.reduce(interpreter, LoxNative.list(arguments.get(0), "First argument"),
+                        LoxNative.callable(arguments.get(1), 2, "Reducer"))));
+        defineGlobal("parallelSort", new LoxNative(2, (interpreter, arguments) ->
+                Parallel.sort(interpreter, LoxNative.list(arguments.get(0), "First argument"),
+                        LoxNative.callable(arguments.get(1), 2, "Comparator"))));
+
+        defineGlobal("range", new LoxNative(2, (interpreter, arguments) ->
+                new LoxRange(LoxNative.number(arguments.get(0), "Range start"),
+                        LoxNative.number(arguments.get(1), "Range end"))));
+
+        defineGlobal("memoize", new LoxNative(2, (interpreter, arguments) ->
+                new LoxMemoized(LoxNative.callable(arguments.get(0), "First argument"),
+                        LoxNative.count(arguments.get(1), "Cache size"), 0)));
+        defineGlobal("memoizeFor", new LoxNative(3, (interpreter, arguments) ->
+                new LoxMemoized(LoxNative.callable(arguments.get(0), "First argument"),
+                        LoxNative.count(arguments.get(1), "Cache size"),
+                        LoxNative.number(arguments.get(2), "Time to live"))));
+
+        defineGlobal("readLines", new LoxNative(1, (interpreter, arguments) ->
+                LoxFiles.readLines(LoxNative.string(arguments.get(0), "Path"))));
+        defineGlobal("stdinLines", new LoxNative(0, (interpreter, arguments) -> LoxFiles.stdinLines()));
+        defineGlobal("writeFile", new LoxNative(2, (interpreter, arguments) -> {
+            LoxFiles.write(LoxNative.string(arguments.get(0), "Path"),
+                    LoxNative.string(arguments.get(1), "Text"), false);
+            return null;
+        }));
+        defineGlobal("appendFile", new LoxNative(2, (interpreter, arguments) -> {
+            LoxFiles.write(LoxNative.string(arguments.get(0), "Path"),
+                    LoxNative.string(arguments.get(1), "Text"), true);
+            return null;
+        }));
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
+    // Shares globals with this interpreter but has its own current frame,
+    // so another thread can call into Lox code.
+    private Interpreter(Interpreter parent) {
+        globals = parent.globals;
+        output = parent.output;
+        modules = parent.modules;
+        directory = parent.directory;
+        feedback = parent.feedback;
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    public Interpreter fork() {
+        return new Interpreter(this);
+    }
+
+    public Interpreter fork(LoxGenerator.Producer generator) {
+        Interpreter worker = new Interpreter(this);
+        worker.generator = generator;
+        return worker;
     }
 
     // Internals.
 
+    public void setScript(Path script) {
+        directory = script.toAbsolutePath().getParent();
+    }
+
+    public void setFeedback(TypeFeedback feedback) {
+        this.feedback = feedback;
+    }
+
+    // Makes a module loxc compiled importable from the path it was at.
+    public void bundle(Path path, String hash, CompactAst ast) {
+        modules.bundle(path, hash, ast);
+    }
+
+    public void flush() {
+        output.flush();
+    }
+
+    private void flushOwnOutput() {
+        if (ownsOutput) output.flush();
+    }
+
     public void interpret(List<Stmt> statements) {
+        frame = new Object[scriptSize];
+        upvalues = null;
+        modules.prefetch(directory, statements);
+
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
+            flushOwnOutput();
             Lox.runtimeError(error);
+        } finally {
+            flushOwnOutput();
         }
     }
 
     public Object interpret(Stmt stmt) {
+        frame = new Object[scriptSize];
+        upvalues = null;
+
         try {
             return execute(stmt);
         } catch (RuntimeError error) {
+            flushOwnOutput();
             Lox.runtimeError(error);
             return null;
+        } finally {
+            flushOwnOutput();
         }
     }
 
-    public void executeBlock(List<Stmt> statements, Environment environment) {
-
-        Environment previous = this.environment;
+    public void executeBody(List<Stmt> statements, Object[] frame, Cell[] upvalues) {
+        Object[] previousFrame = this.frame;
+        Cell[] previousUpvalues = this.upvalues;
 
         try {
-            this.environment = environment;
+            this.frame = frame;
+            this.upvalues = upvalues;
+
+            for (Stmt statement : statements) {
+                execute(statement);
+            }
+        } finally {
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
+        }
+    }
 
+    // Runs a module's or a prelude's top level and returns what it declared
+    // there. Errors are left to the caller.
+    public Map<String, Object> load(List<Stmt> statements) {
+        frame = new Object[scriptSize];
+        upvalues = null;
+
+        try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } finally {
-            this.environment = previous;
+            flushOwnOutput();
+        }
+
+        Map<String, Object> exports = new LinkedHashMap<>();
+        for (Stmt statement : statements) {
+            Token name = null;
+            if (statement instanceof Stmt.Var var) name = var.name;
+            if (statement instanceof Stmt.Function function) name = function.name;
+            if (statement instanceof Stmt.Class klass) name = klass.name;
+
+            if (name != null) exports.put(name.lexeme, globalCell(name.lexeme).value);
+        }
+
+        return exports;
+    }
+
+    // Runs a node the compiler left to the interpreter, in the frame of the
+    // compiled call it's part of.
+    Object evaluateIn(Expr expr, Object[] frame, Cell[] upvalues) {
+        Object[] previousFrame = this.frame;
+        Cell[] previousUpvalues = this.upvalues;
+
+        try {
+            this.frame = frame;
+            this.upvalues = upvalues;
+            return evaluate(expr);
+        } finally {
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
         }
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    void executeIn(Stmt stmt, Object[] frame, Cell[] upvalues) {
+        Object[] previousFrame = this.frame;
+        Cell[] previousUpvalues = this.upvalues;
+
+        try {
+            this.frame = frame;
+            this.upvalues = upvalues;
+            execute(stmt);
+        } finally {
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
+        }
+    }
+
+    void print(Object value) {
+        output.printValue(value);
+    }
+
+    void resolveScript(int size) {
+        scriptSize = size;
     }
 
     private Object execute(Stmt stmt) {
@@ -82,34 +269,88 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return expr.accept(this);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        Object value;
+    Cell globalCell(String name) {
+        return globals.computeIfAbsent(name, key -> new Cell(UNDEFINED));
+    }
+
+    private void defineGlobal(String name, Object value) {
+        globalCell(name).value = value;
+    }
+
+    // A global a heap image holds stays undefined until it's first used.
+    public void defineLazyGlobal(String name, HeapImage.LazyGlobal cell) {
+        cell.value = UNDEFINED;
+        globals.put(name, cell);
+    }
+
+    // A null binding is a top level declaration.
+    private void define(Binding binding, Token name, Object value) {
+        if (binding == null) {
+            defineGlobal(name.lexeme, value);
+        } else {
+            binding.initialize(frame, value);
+        }
+    }
+
+    private Object load(Binding binding) {
+        if (binding.upvalue) return upvalues[binding.index].value;
 
-        if (distance != null) {
-            value = environment.getAt(distance, name.lexeme);
+        Object value = frame[binding.index];
+        return binding.captured ? ((Cell) value).value : value;
+    }
+
+    private void store(Binding binding, Object value) {
+        if (binding.upvalue) {
+            upvalues[binding.index].value = value;
+        } else if (binding.captured) {
+            ((Cell) frame[binding.index]).value = value;
         } else {
-            value = globals.get(name);
+            frame[binding.index] = value;
+        }
+    }
+
+    static Object lookUpGlobal(Token name, Cell cell) {
+        Object value = cell.value;
+
+        if (value == UNDEFINED) {
+            if (!(cell instanceof HeapImage.LazyGlobal global)) {
+                throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+            }
+            value = global.load();
+        }
+        return initialized(name, value);
+    }
+
+    // Assigning doesn't need to read in a global that's still in an image.
+    static void checkAssignable(Token name, Cell cell) {
+        if (cell.value == UNDEFINED && !(cell instanceof HeapImage.LazyGlobal)) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
         }
+    }
 
-        if (value != null) return value;
+    static Object initialized(Token name, Object value) {
+        if (value != UNSET) return value;
         throw new RuntimeError(name, "'" + name.lexeme + "' is uninitialized.");
     }
 
-    private boolean isTruthy(Object object) {
+    public static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    public static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
+        if (a instanceof LoxString || b instanceof LoxString) {
+            return LoxString.normalize(a).equals(LoxString.normalize(b));
+        }
+
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    public static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -147,51 +388,59 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.binding, stmt.name, null);
 
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            stmt.superBinding.initialize(frame, superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
 
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            Cell[] cells = method.layout.capture(frame, upvalues);
+            LoxFunction function = new LoxFunction(method, cells, method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
 
-        if (superclass != null) {
-            environment = environment.enclosing;
+        if (stmt.binding == null) {
+            defineGlobal(stmt.name.lexeme, klass);
+        } else {
+            store(stmt.binding, klass);
         }
-
-        environment.assign(stmt.name, klass);
         return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        Object value = null;
+        Object value = UNSET;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.binding, stmt.name, value);
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        // The slot exists before the closure is made, so a recursive
+        // function captures its own cell.
+        define(stmt.binding, stmt.name, null);
+
+        LoxFunction function = new LoxFunction(stmt, stmt.layout.capture(frame, upvalues), false);
+        if (stmt.binding == null) {
+            defineGlobal(stmt.name.lexeme, function);
+        } else {
+            store(stmt.binding, function);
+        }
         return null;
     }
 
     @Override
     public Object visitLambdaStmt(Stmt.Lambda stmt) {
-        return new LoxLambda(stmt, environment);
+        return new LoxLambda(stmt, stmt.layout.capture(frame, upvalues));
     }
 
     // Statements.
@@ -209,7 +458,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        output.printValue(value);
         return null;
     }
 
@@ -221,6 +470,23 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         throw new Return(value);
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        Object value = null;
+        if (stmt.value != null) value = evaluate(stmt.value);
+
+        generator.yield(value);
+        return null;
+    }
+
+    @Override
+    public Object visitImportStmt(Stmt.Import stmt) {
+        // The importer gets a copy of what the module declared, the module
+        // keeps its own globals.
+        modules.load(directory, stmt).forEach(this::defineGlobal);
+        return null;
+    }
+
     @Override
     public Object visitBreakStmt(Stmt.Break stmt) {
         throw new Break();
@@ -234,13 +500,131 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
             } catch (Break stop) {
                 return null;
             }
+
+            // A hot loop goes on in a trace, until it ends or a guard fails.
+            if (ClosureCompiler.traceLoop(this, stmt, frame, upvalues)) return null;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.initializer != null) execute(stmt.initializer);
+
+        if (stmt.counter != null && load(stmt.counter) instanceof Double start) {
+            countedLoop(stmt, start);
+            return null;
+        }
+
+        try {
+            while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+                execute(stmt.body);
+                if (stmt.increment != null) evaluate(stmt.increment);
+            }
+        } catch (Break stop) {
+            return null;
         }
+
         return null;
     }
 
+    // The counter lives in a Java double and is only written back to its
+    // slot for the body, the condition and increment are never evaluated
+    // as expressions.
+    private void countedLoop(Stmt.For stmt, double start) {
+        Expr.Binary condition = (Expr.Binary) stmt.condition;
+        Binding counter = stmt.counter;
+        double step = stmt.step;
+
+        try {
+            for (double i = start; ; i += step) {
+                if (!(evaluate(condition.right) instanceof Double limit)) {
+                    throw new RuntimeError(condition.operator, "Operands must be numbers.");
+                }
+
+                boolean running = switch (condition.operator.type) {
+                    case LESS -> i < limit;
+                    case LESS_EQUAL -> i <= limit;
+                    case GREATER -> i > limit;
+                    default -> i >= limit;
+                };
+                if (!running) return;
+
+                execute(stmt.body);
+                store(counter, i + step);
+            }
+        } catch (Break stop) {
+            // Leaves the loop.
+        }
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        Object iterable = evaluate(stmt.iterable);
+
+        // The loop variable is one variable for the whole loop, closures in
+        // the body all see its latest value.
+        Binding binding = stmt.binding;
+        binding.initialize(frame, null);
+
+        try {
+            if (iterable instanceof LoxRange range) {
+                // Counted loop, no iterator and no list behind it.
+                for (double i = range.start; i < range.end; i++) {
+                    store(binding, i);
+                    execute(stmt.body);
+                }
+                return null;
+            }
+
+            LoxIterator iterator = iteratorOf(stmt.name, iterable);
+            while (hasNext(stmt.name, iterator)) {
+                store(binding, next(stmt.name, iterator));
+                execute(stmt.body);
+            }
+        } catch (Break stop) {
+            return null;
+        }
+
+        return null;
+    }
+
+    // Iterators that read input or run generators fail without a token, the
+    // loop gives them its variable's.
+    private static boolean hasNext(Token token, LoxIterator iterator) {
+        try {
+            return iterator.hasNext();
+        } catch (RuntimeError error) {
+            if (error.token != null) throw error;
+            throw new RuntimeError(token, error.getMessage());
+        }
+    }
+
+    private static Object next(Token token, LoxIterator iterator) {
+        try {
+            return iterator.next();
+        } catch (RuntimeError error) {
+            if (error.token != null) throw error;
+            throw new RuntimeError(token, error.getMessage());
+        }
+    }
+
+    private LoxIterator iteratorOf(Token token, Object iterable) {
+        if (iterable instanceof LoxIterator iterator) return iterator;
+        if (iterable instanceof LoxRange range) return range.iterator();
+        if (iterable instanceof LoxList list) return list.iterator();
+        if (iterable instanceof LoxMap map) return map.keys().iterator();
+        if (iterable instanceof LoxInstance instance) return LoxInstanceIterator.of(this, token, instance);
+
+        throw new RuntimeError(token, "Can only iterate over lists, maps, ranges and iterators.");
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        // Block locals already have their slots in the frame.
+        for (Stmt statement : stmt.statements) {
+            execute(statement);
+        }
         return null;
     }
 
@@ -260,13 +644,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
-        } else {
-            globals.assign(expr.name, value);
+        if (expr.binding != null) {
+            store(expr.binding, value);
+            return value;
+        }
+
+        Cell cell = expr.global;
+        if (cell == null) {
+            cell = expr.global = globalCell(expr.name.lexeme);
         }
 
+        checkAssignable(expr.name, cell);
+        cell.value = value;
         return value;
     }
 
@@ -281,7 +670,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        if (expr.binding != null) {
+            Object value = load(expr.binding);
+            return expr.checked ? initialized(expr.name, value) : value;
+        }
+
+        // Global sites link their cell once and skip the map afterwards.
+        Cell cell = expr.global;
+        if (cell == null) {
+            cell = expr.global = globalCell(expr.name.lexeme);
+        }
+
+        return lookUpGlobal(expr.name, cell);
     }
 
     @Override
@@ -319,8 +719,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
                 checkNumberOperands(expr.operator, left, right);
                 return (double) left - (double) right;
             case PLUS:
-                if (left instanceof String || right instanceof String) {
-                    return left.toString() + right.toString();
+                if (left instanceof CharSequence || right instanceof CharSequence) {
+                    return LoxString.concat(left, right);
                 }
 
                 if (left instanceof Double && right instanceof Double) {
@@ -387,12 +787,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
             throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            if (error.token != null) throw error;
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
     }
 
     @Override
     public Object visitLambdaExpr(Expr.Lambda expr) {
-        return new LoxLambda(expr, environment);
+        return new LoxLambda(expr, expr.layout.capture(frame, upvalues));
     }
 
     // Literals.
@@ -402,13 +807,72 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return expr.value;
     }
 
+    // Collections.
+
+    @Override
+    public Object visitListLiteralExpr(Expr.ListLiteral expr) {
+        Object[] elements = new Object[expr.elements.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = evaluate(expr.elements.get(i));
+        }
+
+        return new LoxList(elements);
+    }
+
+    @Override
+    public Object visitMapLiteralExpr(Expr.MapLiteral expr) {
+        LoxMap map = new LoxMap();
+        for (int i = 0; i < expr.keys.size(); i++) {
+            Object key = evaluate(expr.keys.get(i));
+            map.put(expr.brace, key, evaluate(expr.values.get(i)));
+        }
+
+        return map;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+
+        if (object instanceof LoxList list) {
+            return list.get(list.index(expr.bracket, index));
+        }
+
+        if (object instanceof LoxMap map) {
+            return map.get(expr.bracket, index);
+        }
+
+        throw new RuntimeError(expr.bracket, "Only lists and maps can be indexed.");
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+
+        if (object instanceof LoxList list) {
+            Object value = evaluate(expr.value);
+            list.set(list.index(expr.bracket, index), value);
+            return value;
+        }
+
+        if (object instanceof LoxMap map) {
+            Object value = evaluate(expr.value);
+            map.put(expr.bracket, index, value);
+            return value;
+        }
+
+        throw new RuntimeError(expr.bracket, "Only lists and maps can be indexed.");
+    }
+
     // Classes.
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
-        if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+        if (object instanceof LoxObject) {
+            return ((LoxObject) object).get(expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -418,21 +882,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.object);
 
-        if (!(object instanceof LoxInstance)) {
+        if (!(object instanceof LoxObject)) {
             throw new RuntimeError(expr.name, "Only instances have fields.");
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance) object).set(expr.name, value);
+        ((LoxObject) object).set(expr.name, value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+        LoxClass superclass = (LoxClass) load(expr.binding);
+        LoxInstance object = (LoxInstance) load(expr.self);
 
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
@@ -445,6 +907,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return load(expr.binding);
     }
 }
@@ -0,0 +1,178 @@
+package dev.carlinhos.lox.passes;
+
+import dev.carlinhos.lox.Lox;
+import dev.carlinhos.lox.entities.Stmt;
+import dev.carlinhos.lox.entities.TypeFeedback;
+import dev.carlinhos.lox.runtime.OutputSink;
+import dev.carlinhos.lox.runtime.RuntimeError;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+// Loads the modules named by import statements. A module is scanned, parsed
+// and resolved once per canonical path and modification time, and its top
+// level runs once, with globals of its own. The imports at the top level of
+// a program or module all start compiling on the common pool as soon as it
+// is resolved, so independent modules load side by side.
+//
+// A program loxc compiled brings the modules it imports along, already
+// parsed. Those are found by the path their import resolves to, before the
+// file system is looked at.
+final class ModuleRegistry {
+
+    private final OutputSink output;
+    private final Map<Path, Module> modules = new ConcurrentHashMap<>();
+    private final Map<Path, Bundled> bundled = new ConcurrentHashMap<>();
+
+    ModuleRegistry(OutputSink output) {
+        this.output = output;
+    }
+
+    private record Compiled(List<Stmt> statements, Interpreter interpreter, Lox.Reports reports) {
+    }
+
+    private record Bundled(String hash, CompactAst ast) {
+    }
+
+    private final class Module {
+        private final Path path;
+        private final FileTime modified;
+        private final CompletableFuture<Compiled> compiled;
+
+        private boolean running = false;
+        private boolean reported = false;
+        private Map<String, Object> exports;
+
+        Module(Path path, FileTime modified) {
+            this.path = path;
+            this.modified = modified;
+            compiled = CompletableFuture.supplyAsync(this::compile, ForkJoinPool.commonPool());
+        }
+
+        Module(Path path, Bundled module) {
+            this.path = path;
+            this.modified = null;
+            compiled = CompletableFuture.supplyAsync(() -> decode(module), ForkJoinPool.commonPool());
+        }
+
+        private Compiled compile() {
+            String source;
+            try {
+                source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            Interpreter interpreter = new Interpreter(output, ModuleRegistry.this, path.getParent());
+            interpreter.setFeedback(TypeFeedback.of(path, source));
+            List<Stmt> statements = new ArrayList<>();
+            Lox.Reports reports = new Lox.Reports();
+
+            String file = Lox.fileName(path);
+            reports.hold(() -> statements.addAll(new Parser(new Scanner(source, file).scanTokens()).parse()));
+            return resolve(interpreter, statements, reports);
+        }
+
+        // loxc already parsed a bundled module and checked its syntax.
+        private Compiled decode(Bundled module) {
+            Interpreter interpreter = new Interpreter(output, ModuleRegistry.this, path.getParent());
+            interpreter.setFeedback(TypeFeedback.forHash(path, module.hash));
+            List<Stmt> statements = new ArrayList<>(module.ast.size());
+            for (int i = 0; i < module.ast.size(); i++) {
+                statements.add(module.ast.statement(i));
+            }
+
+            return resolve(interpreter, statements, new Lox.Reports());
+        }
+
+        private Compiled resolve(Interpreter interpreter, List<Stmt> statements, Lox.Reports reports) {
+            if (!reports.hadError()) reports.hold(() -> new Resolver(interpreter).resolveModule(statements));
+            if (!reports.hadError()) prefetch(path.getParent(), statements);
+
+            return new Compiled(statements, interpreter, reports);
+        }
+
+        // Runs the module the first time it's imported, later imports get the
+        // same values.
+        synchronized Map<String, Object> load(Stmt.Import stmt) {
+            if (exports != null) return exports;
+            if (running) throw new RuntimeError(stmt.keyword, "Circular import of '" + stmt.path + "'.");
+
+            Compiled module;
+            try {
+                module = compiled.join();
+            } catch (CompletionException e) {
+                throw new RuntimeError(stmt.keyword, "Can't read module '" + stmt.path + "'.");
+            }
+
+            // Compile errors are reported once, by the first import to need them.
+            if (!reported) {
+                reported = true;
+                module.reports.replay();
+            }
+            if (module.reports.hadError()) {
+                throw new RuntimeError(stmt.keyword, "Module '" + stmt.path + "' has errors.");
+            }
+
+            running = true;
+            try {
+                exports = module.interpreter.load(module.statements);
+            } finally {
+                running = false;
+            }
+
+            return exports;
+        }
+    }
+
+    Map<String, Object> load(Path directory, Stmt.Import stmt) {
+        Module module;
+        try {
+            module = module(directory.resolve(stmt.path));
+        } catch (IOException | InvalidPathException e) {
+            throw new RuntimeError(stmt.keyword, "Can't find module '" + stmt.path + "'.");
+        }
+
+        return module.load(stmt);
+    }
+
+    void prefetch(Path directory, List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Import stmt)) continue;
+
+            try {
+                module(directory.resolve(stmt.path));
+            } catch (IOException | InvalidPathException e) {
+                // Reported when the import runs.
+            }
+        }
+    }
+
+    void bundle(Path path, String hash, CompactAst ast) {
+        bundled.put(path.normalize(), new Bundled(hash, ast));
+    }
+
+    // The cached module for a file, or a new one if the file changed since.
+    private Module module(Path file) throws IOException {
+        Bundled module = bundled.get(file.normalize());
+        if (module != null) return modules.computeIfAbsent(file.normalize(), key -> new Module(key, module));
+
+        Path path = file.toRealPath();
+        FileTime modified = Files.getLastModifiedTime(path);
+
+        return modules.compute(path, (key, cached) ->
+                cached != null && cached.modified.equals(modified) ? cached : new Module(key, modified));
+    }
+}
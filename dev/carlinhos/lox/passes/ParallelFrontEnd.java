@@ -0,0 +1,134 @@
+package dev.carlinhos.lox.passes;
+
+import dev.carlinhos.lox.Lox;
+import dev.carlinhos.lox.entities.Stmt;
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.entities.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static dev.carlinhos.lox.entities.TokenType.*;
+
+// Parses and resolves a program in pieces on the common ForkJoin pool. The
+// token stream is cut between top level declarations, each piece gets its
+// own parser and resolver, and the results are merged back in source order.
+// Errors and warnings are held per piece and reported in that same order,
+// so the output doesn't depend on scheduling.
+public final class ParallelFrontEnd {
+
+    // Below this many tokens a piece isn't worth a task of its own.
+    static final int MIN_PIECE = 4096;
+
+    private ParallelFrontEnd() {
+    }
+
+    private record Piece<T>(T result, Lox.Reports reports) {
+    }
+
+    public static List<Stmt> parseAndResolve(List<Token> tokens, Interpreter interpreter) {
+        List<List<Token>> pieces = split(tokens, ForkJoinPool.getCommonPoolParallelism() * 4);
+
+        List<Piece<List<Stmt>>> parsed = run(pieces, piece -> new Parser(piece).parse());
+
+        List<Stmt> statements = new ArrayList<>();
+        for (Piece<List<Stmt>> piece : parsed) {
+            piece.reports.replay();
+            statements.addAll(piece.result);
+        }
+
+        // Resolving a program with syntax errors would only report noise.
+        if (parsed.stream().anyMatch(piece -> piece.reports.hadError())) return statements;
+
+        List<Piece<Resolver>> resolved = run(parsed, piece -> {
+            Resolver resolver = new Resolver(interpreter);
+            resolver.resolveStatements(piece.result);
+            return resolver;
+        });
+
+        Resolver program = new Resolver(interpreter);
+        for (Piece<Resolver> piece : resolved) {
+            piece.reports.replay();
+            program.merge(piece.result);
+        }
+        program.finish();
+
+        return statements;
+    }
+
+    private interface Work<I, T> {
+        T apply(I input);
+    }
+
+    private static <I, T> List<Piece<T>> run(List<I> inputs, Work<I, T> work) {
+        List<Callable<Piece<T>>> tasks = new ArrayList<>(inputs.size());
+        for (I input : inputs) {
+            tasks.add(() -> {
+                List<T> result = new ArrayList<>(1);
+                Lox.Reports reports = new Lox.Reports();
+                reports.hold(() -> result.add(work.apply(input)));
+                return new Piece<>(result.getFirst(), reports);
+            });
+        }
+
+        List<Piece<T>> pieces = new ArrayList<>(inputs.size());
+        try {
+            for (Future<Piece<T>> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                pieces.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException error) throw error;
+            throw new IllegalStateException(e.getCause());
+        }
+
+        return pieces;
+    }
+
+    // Cuts where a top level fun, class, var or import starts right after a ';' or
+    // '}' outside of any brackets, so every piece is whole declarations.
+    // Each piece gets its own copy of the EOF token to end on.
+    static List<List<Token>> split(List<Token> tokens, int count) {
+        int target = Math.max(MIN_PIECE, tokens.size() / count);
+        Token eof = tokens.getLast();
+
+        List<List<Token>> pieces = new ArrayList<>();
+        int start = 0;
+        int depth = 0;
+
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            TokenType type = tokens.get(i).type;
+            switch (type) {
+                case LEFT_PAREN, LEFT_BRACE, LEFT_BRACKET -> depth++;
+                case RIGHT_PAREN, RIGHT_BRACE, RIGHT_BRACKET -> depth--;
+                default -> {
+                }
+            }
+
+            if (depth != 0 || i + 1 - start < target) continue;
+            if (type != SEMICOLON && type != RIGHT_BRACE) continue;
+
+            TokenType next = tokens.get(i + 1).type;
+            if (next != FUN && next != CLASS && next != VAR && next != IMPORT) continue;
+
+            pieces.add(piece(tokens, start, i + 1, eof));
+            start = i + 1;
+        }
+
+        pieces.add(piece(tokens, start, tokens.size() - 1, eof));
+        return pieces;
+    }
+
+    private static List<Token> piece(List<Token> tokens, int from, int to, Token eof) {
+        List<Token> piece = new ArrayList<>(to - from + 1);
+        piece.addAll(tokens.subList(from, to));
+        piece.add(eof);
+        return piece;
+    }
+}
@@ -7,7 +7,6 @@ import dev.carlinhos.lox.entities.Token;
 import dev.carlinhos.lox.entities.TokenType;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static dev.carlinhos.lox.entities.TokenType.*;
@@ -22,6 +21,11 @@ public class Parser {
     private int current = 0;
     private boolean isLoop = false;
 
+    // Expression parsing stacks, see expression(boolean).
+    private final List<Expr> operands = new ArrayList<>();
+    private final List<Operator> operators = new ArrayList<>();
+    private final List<Operator> markers = new ArrayList<>();
+
     public Parser(List<Token> tokens) {
         this.tokens = tokens;
     }
@@ -37,15 +41,24 @@ public class Parser {
         return statements;
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    // Encodes each declaration as soon as it is parsed, so the program never
+    // exists as a whole tree of nodes.
+    public CompactAst parseCompact() {
+        CompactAst ast = new CompactAst();
+        while (!isAtEnd()) {
+            Stmt statement = declaration();
+            if (statement != null) ast.add(statement);
         }
 
-        return false;
+        ast.trim();
+        return ast;
+    }
+
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+
+        advance();
+        return true;
     }
 
     private Token consume(TokenType type, String message) {
@@ -96,6 +109,8 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case YIELD:
+                case IMPORT:
                     return;
             }
 
@@ -113,6 +128,7 @@ public class Parser {
             }
             if (match(VAR)) return varDeclaration();
             if (match(CLASS)) return classDeclaration();
+            if (match(IMPORT)) return importDeclaration();
 
             return statement();
         } catch (ParseError error) {
@@ -121,6 +137,13 @@ public class Parser {
         }
     }
 
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+        consume(SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import(keyword, (String) path.literal);
+    }
+
     private Stmt classDeclaration() {
         Token name = consume(IDENTIFIER, "Expect class name.");
 
@@ -134,6 +157,7 @@ public class Parser {
 
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            consume(IDENTIFIER, "Expect method name.");
             methods.add((Stmt.Function) function("method"));
         }
 
@@ -143,8 +167,10 @@ public class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expect variable name.");
+        return varDeclaration(consume(IDENTIFIER, "Expect variable name."));
+    }
 
+    private Stmt varDeclaration(Token name) {
         Expr initializer = null;
         if (match(EQUAL)) {
             initializer = expression();
@@ -185,6 +211,7 @@ public class Parser {
         if (match(IF)) return ifStatement();
         if (match(PRINT)) return printStatement();
         if (match(RETURN)) return returnStatement();
+        if (match(YIELD)) return yieldStatement();
         if (match(BREAK)) return breakStatement();
         if (match(WHILE)) return whileStatement();
         if (match(LEFT_BRACE)) return new Stmt.Block(block());
@@ -199,7 +226,9 @@ public class Parser {
         if (match(SEMICOLON)) {
             initializer = null;
         } else if (match(VAR)) {
-            initializer = varDeclaration();
+            Token name = consume(IDENTIFIER, "Expect variable name.");
+            if (match(IN)) return forInStatement(name);
+            initializer = varDeclaration(name);
         } else {
             initializer = expressionStatement();
         }
@@ -220,21 +249,22 @@ public class Parser {
         Stmt body = statement();
         this.isLoop = false;
 
-        if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
+        return new Stmt.For(initializer, condition, increment, body);
+    }
 
-        if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+    private Stmt forInStatement(Token name) {
+        Expr iterable = expression();
+        consume(RIGHT_PAREN, "Expect ')' after for-in clause.");
 
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
+        this.isLoop = true;
+        Stmt body = statement();
+        this.isLoop = false;
 
-        return body;
+        return new Stmt.ForIn(name, iterable, body);
     }
 
     private Stmt ifStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after if condition.");
@@ -245,7 +275,7 @@ public class Parser {
             elseBranch = statement();
         }
 
-        return new Stmt.If(condition, thenBranch, elseBranch);
+        return new Stmt.If(keyword, condition, thenBranch, elseBranch);
     }
 
     private Stmt printStatement() {
@@ -265,6 +295,17 @@ public class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
     private Stmt breakStatement() {
         if (!this.isLoop) {
             error(previous(), "Can't break outside of a loop.");
@@ -276,6 +317,7 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
@@ -284,7 +326,7 @@ public class Parser {
         Stmt body = statement();
         isLoop = false;
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private List<Stmt> block() {
@@ -306,158 +348,235 @@ public class Parser {
         return new Stmt.Expression(expr);
     }
 
-    private Expr expression() {
-        Expr expr = assignment();
-
-        if (match(COMMA)) {
-            Expr right = expression();
-            return new Expr.Comma(expr, right);
-        }
+    // Expressions are parsed by precedence climbing over explicit operand and
+    // operator stacks, so nesting depth costs heap instead of Java frames.
+    // Open parentheses and the '?' of a ternary sit on the operator stack as
+    // markers until their closing token shows up.
+    private static final int COMMA_PRECEDENCE = 1;
+    private static final int TERNARY_PRECEDENCE = 2;
+    private static final int ASSIGNMENT_PRECEDENCE = 3;
+    private static final int UNARY_PRECEDENCE = 10;
 
-        if (match(QUESTION_MARK)) {
-            Expr left = expression();
-            consume(COLON, "Expect ':' after expression");
-            Expr right = expression();
-            return new Expr.Ternary(expr, left, right);
-        }
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
 
-        return expr;
+    static {
+        PRECEDENCE[COMMA.ordinal()] = COMMA_PRECEDENCE;
+        PRECEDENCE[QUESTION_MARK.ordinal()] = TERNARY_PRECEDENCE;
+        PRECEDENCE[EQUAL.ordinal()] = ASSIGNMENT_PRECEDENCE;
+        PRECEDENCE[OR.ordinal()] = 4;
+        PRECEDENCE[AND.ordinal()] = 5;
+        PRECEDENCE[BANG_EQUAL.ordinal()] = 6;
+        PRECEDENCE[EQUAL_EQUAL.ordinal()] = 6;
+        PRECEDENCE[GREATER.ordinal()] = 7;
+        PRECEDENCE[GREATER_EQUAL.ordinal()] = 7;
+        PRECEDENCE[LESS.ordinal()] = 7;
+        PRECEDENCE[LESS_EQUAL.ordinal()] = 7;
+        PRECEDENCE[MINUS.ordinal()] = 8;
+        PRECEDENCE[PLUS.ordinal()] = 8;
+        PRECEDENCE[SLASH.ordinal()] = 9;
+        PRECEDENCE[STAR.ordinal()] = 9;
     }
 
-    private Expr lambda() {
-        consume(LEFT_PAREN, "Expect '(' after lambda expression.");
+    private enum OperatorKind {
+        INFIX, PREFIX, ELSE, GROUP, QUESTION
+    }
 
-        List<Token> parameters = new ArrayList<>();
-        if (!check(RIGHT_PAREN)) {
-            do {
-                if (parameters.size() >= 255) {
-                    error(peek(), "Can't have more than 255 parameters.");
-                }
-                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
-            } while (match(COMMA));
+    private record Operator(OperatorKind kind, Token token, int precedence, Expr condition, Expr middle) {
+        Operator(OperatorKind kind, Token token, int precedence) {
+            this(kind, token, precedence, null, null);
         }
 
-        consume(RIGHT_PAREN, "Expect ')' after parameters.");
-        consume(LEFT_BRACE, "Expect '{' before lambda body.");
+        boolean isMarker() {
+            return kind == OperatorKind.GROUP || kind == OperatorKind.QUESTION;
+        }
+    }
 
-        List<Stmt> body = block();
+    private Expr expression() {
+        return expression(true);
+    }
 
-        return new Expr.Lambda(parameters, body);
+    // Argument lists are comma separated, so they start below the comma operator.
+    private Expr conditional() {
+        return expression(false);
     }
 
-    private Expr assignment() {
-        Expr expr = or();
+    private Expr expression(boolean allowComma) {
+        // Calls, indexes and literals parse their inner expressions on top of
+        // the same stacks, so this expression only owns what is above here.
+        int operandBase = operands.size();
+        int operatorBase = operators.size();
+        int markerBase = markers.size();
 
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get get) {
-                return new Expr.Set(get.object, get.name, value);
+        try {
+            while (true) {
+                // Prefix operators and open parentheses, then the operand itself.
+                while (true) {
+                    if (match(BANG) || match(MINUS)) {
+                        operators.add(new Operator(OperatorKind.PREFIX, previous(), UNARY_PRECEDENCE));
+                    } else if (match(LEFT_PAREN)) {
+                        pushMarker(new Operator(OperatorKind.GROUP, previous(), 0));
+                    } else {
+                        break;
+                    }
+                }
+                operands.add(call(primary()));
+
+                // Closing tokens, until an infix operator asks for another operand.
+                while (true) {
+                    Operator marker = markers.size() > markerBase ? markers.getLast() : null;
+                    TokenType type = peek().type;
+
+                    if (type == RIGHT_PAREN && marker != null && marker.kind == OperatorKind.GROUP) {
+                        advance();
+                        closeMarker(operatorBase);
+                        operands.add(call(new Expr.Grouping(pop())));
+                        continue;
+                    }
+
+                    if (type == COLON && marker != null && marker.kind == OperatorKind.QUESTION) {
+                        advance();
+                        closeMarker(operatorBase);
+                        Expr middle = pop();
+                        Expr condition = pop();
+                        // The else branch takes a comma operator too: a ? b : c, d
+                        // is a ? b : (c, d). Argument lists still end at the comma.
+                        operators.add(new Operator(OperatorKind.ELSE, previous(), COMMA_PRECEDENCE, condition, middle));
+                        break;
+                    }
+
+                    int precedence = PRECEDENCE[type.ordinal()];
+                    if (type == COMMA && marker == null && !allowComma) precedence = 0;
+
+                    if (precedence == 0) {
+                        if (marker != null && marker.kind == OperatorKind.GROUP) {
+                            throw error(peek(), "Expect ')' after expression.");
+                        }
+                        if (marker != null) throw error(peek(), "Expect ':' after expression");
+
+                        reduce(operatorBase, 0);
+                        return pop();
+                    }
+
+                    Token operator = advance();
+                    reduce(operatorBase, precedence);
+
+                    if (type == QUESTION_MARK) {
+                        pushMarker(new Operator(OperatorKind.QUESTION, operator, 0));
+                    } else {
+                        operators.add(new Operator(OperatorKind.INFIX, operator, precedence));
+                    }
+                    break;
+                }
             }
-
-            error(equals, "Invalid assignment target.");
+        } finally {
+            // Only left behind when a parse error unwinds the expression.
+            truncate(operands, operandBase);
+            truncate(operators, operatorBase);
+            truncate(markers, markerBase);
         }
-
-        return expr;
     }
 
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
+    private void pushMarker(Operator marker) {
+        operators.add(marker);
+        markers.add(marker);
+    }
 
-        return expr;
+    private void closeMarker(int operatorBase) {
+        reduce(operatorBase, 0);
+        operators.removeLast();
+        markers.removeLast();
     }
 
-    private Expr and() {
-        Expr expr = equality();
+    // Applies the pending operators that bind tighter than the incoming one.
+    // Comma, ternary and assignment group to the right, the rest to the left.
+    private void reduce(int operatorBase, int precedence) {
+        boolean rightAssociative = precedence <= ASSIGNMENT_PRECEDENCE;
 
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
+        while (operators.size() > operatorBase) {
+            Operator top = operators.getLast();
+            if (top.isMarker()) return;
+            if (top.precedence < precedence || (top.precedence == precedence && rightAssociative)) return;
 
-        return expr;
+            operators.removeLast();
+            apply(top);
+        }
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
+    private void apply(Operator operator) {
+        Expr right = pop();
 
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+        switch (operator.kind) {
+            case PREFIX -> operands.add(new Expr.Unary(operator.token, right));
+            case ELSE -> operands.add(new Expr.Ternary(operator.condition, operator.middle, right));
+            default -> operands.add(infix(operator.token, pop(), right));
         }
-
-        return expr;
     }
 
-    private Expr comparison() {
-        Expr expr = term();
+    private Expr infix(Token operator, Expr left, Expr right) {
+        switch (operator.type) {
+            case COMMA:
+                return new Expr.Comma(left, right);
+            case AND:
+            case OR:
+                return new Expr.Logical(left, operator, right);
+            case EQUAL:
+                if (left instanceof Expr.Variable variable) {
+                    return new Expr.Assign(variable.name, right);
+                } else if (left instanceof Expr.Get get) {
+                    return new Expr.Set(get.object, get.name, right);
+                } else if (left instanceof Expr.Index index) {
+                    return new Expr.IndexSet(index.object, index.bracket, index.index, right);
+                }
 
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+                error(operator, "Invalid assignment target.");
+                return left;
+            default:
+                return new Expr.Binary(left, operator, right);
         }
-
-        return expr;
     }
 
-    private Expr term() {
-        Expr expr = factor();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+    private Expr pop() {
+        return operands.removeLast();
+    }
 
-        return expr;
+    private static void truncate(List<?> stack, int size) {
+        if (stack.size() > size) stack.subList(size, stack.size()).clear();
     }
 
-    private Expr factor() {
-        Expr expr = unary();
+    private Expr lambda() {
+        consume(LEFT_PAREN, "Expect '(' after lambda expression.");
 
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+        List<Token> parameters = new ArrayList<>();
+        if (!check(RIGHT_PAREN)) {
+            do {
+                if (parameters.size() >= 255) {
+                    error(peek(), "Can't have more than 255 parameters.");
+                }
+                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+            } while (match(COMMA));
         }
 
-        return expr;
-    }
+        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        consume(LEFT_BRACE, "Expect '{' before lambda body.");
 
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
+        List<Stmt> body = block();
 
-        return call();
+        return new Expr.Lambda(parameters, body);
     }
 
     // Function calls.
 
-    private Expr call() {
-        Expr expr = primary();
-
+    private Expr call(Expr expr) {
         while (true) {
             if (match(LEFT_PAREN)) {
                 expr = finishCall(expr);
             } else if (match(DOT)) {
                 Token name = consume(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if (match(LEFT_BRACKET)) {
+                Expr index = expression();
+                Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -473,7 +592,7 @@ public class Parser {
                 if (arguments.size() >= 255) {
                     error(peek(), "Can't have more than 255 arguments.");
                 }
-                arguments.add(expression());
+                arguments.add(conditional());
             } while (match(COMMA));
         }
 
@@ -484,13 +603,40 @@ public class Parser {
 
     // Literals and reserved words.
 
+    private Expr listLiteral() {
+        List<Expr> elements = new ArrayList<>();
+        if (!check(RIGHT_BRACKET)) {
+            do {
+                elements.add(conditional());
+            } while (match(COMMA));
+        }
+
+        Token bracket = consume(RIGHT_BRACKET, "Expect ']' after list elements.");
+        return new Expr.ListLiteral(bracket, elements);
+    }
+
+    private Expr mapLiteral() {
+        List<Expr> keys = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        if (!check(RIGHT_BRACE)) {
+            do {
+                keys.add(conditional());
+                consume(COLON, "Expect ':' after map key.");
+                values.add(conditional());
+            } while (match(COMMA));
+        }
+
+        Token brace = consume(RIGHT_BRACE, "Expect '}' after map entries.");
+        return new Expr.MapLiteral(brace, keys, values);
+    }
+
     private Expr primary() {
         if (match(FUN)) return lambda();
         if (match(FALSE)) return new Expr.Literal(false);
         if (match(TRUE)) return new Expr.Literal(true);
         if (match(NIL)) return new Expr.Literal(null);
 
-        if (match(NUMBER, STRING)) return new Expr.Literal(previous().literal);
+        if (match(NUMBER) || match(STRING)) return new Expr.Literal(previous().literal);
 
         if (match(THIS)) return new Expr.This(previous());
 
@@ -503,11 +649,8 @@ public class Parser {
             return new Expr.Super(keyword, method);
         }
 
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
+        if (match(LEFT_BRACKET)) return listLiteral();
+        if (match(LEFT_BRACE)) return mapLiteral();
 
         throw error(peek(), "Expect expression.");
     }
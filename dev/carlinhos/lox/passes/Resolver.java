@@ -1,9 +1,13 @@
 package dev.carlinhos.lox.passes;
 
+import dev.carlinhos.lox.entities.Binding;
 import dev.carlinhos.lox.entities.Expr;
 import dev.carlinhos.lox.Lox;
+import dev.carlinhos.lox.entities.FrameLayout;
 import dev.carlinhos.lox.entities.Stmt;
 import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.entities.TokenType;
+import dev.carlinhos.lox.entities.TypeFeedback;
 
 import java.util.*;
 
@@ -17,31 +21,119 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         NONE, CLASS, SUBCLASS
     }
 
+    // A declared local. Only var declarations have a token to warn about
+    // when nothing ever reads or writes them.
+    private static class Local {
+        final String name;
+        final Token declaration;
+        final Binding binding;
+        final Scope scope;
+        final Local shadowed;
+        boolean defined = false;
+        boolean assigned = false;
+        // Set while join() looks for the locals one branch assigned.
+        boolean inOtherBranch = false;
+        boolean used = false;
+        int writes = 0;
+
+        Local(String name, Token declaration, Binding binding, Scope scope, Local shadowed) {
+            this.name = name;
+            this.declaration = declaration;
+            this.binding = binding;
+            this.scope = scope;
+            this.shadowed = shadowed;
+        }
+    }
+
+    private static class Scope {
+        final List<Local> locals = new ArrayList<>();
+        final Frame frame;
+        final int firstSlot;
+
+        Scope(Frame frame) {
+            this.frame = frame;
+            this.firstSlot = frame.slots;
+        }
+    }
+
+    // A function being resolved. Slots are handed out as locals are declared
+    // and reused once their block ends; captures are the enclosing bindings
+    // its closures need, in upvalue order.
+    private static class Frame {
+        final Frame enclosing;
+        final FrameLayout layout = new FrameLayout();
+        final List<Binding> captures = new ArrayList<>();
+        final Map<Binding, Binding> upvalues = new IdentityHashMap<>();
+        int slots = 0;
+
+        Frame(Frame enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
     private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
-    private final Stack<List<Token>> unused = new Stack<>();
+    // Where loops and functions are registered, by the source they're from.
+    private final TypeFeedback feedback;
+    private final List<Scope> scopes = new ArrayList<>();
+
+    // The innermost local for each name in sight. Each local remembers the
+    // one it shadows, which comes back into sight when its scope ends, so a
+    // lookup is a single probe however deep the scopes go.
+    private final Map<String, Local> visible = new HashMap<>();
+
+    // Top level variables, and the global names referenced anywhere.
+    private final List<Token> globals = new ArrayList<>();
+    private final Set<String> usedGlobals = new HashSet<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    private boolean currentYields = false;
     private ClassType currentClass = ClassType.NONE;
 
+    // Top level blocks get their slots in the script frame.
+    private Frame frame = new Frame(null);
+
+    // Locals definitely assigned on the current path, in the order they got
+    // there, so a branch that may not run can be undone.
+    private final List<Local> assigned = new ArrayList<>();
+
     public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+        this(interpreter, interpreter.feedback);
+    }
 
-        // Top level variables.
-        this.unused.push(new ArrayList<>());
+    public Resolver(Interpreter interpreter, TypeFeedback feedback) {
+        this.interpreter = interpreter;
+        this.feedback = feedback;
     }
 
     // Internals.
 
     public void resolve(List<Stmt> statements) {
         resolveStatements(statements);
+        finish();
+    }
 
-        // Check unused variables.
-        if (!unused.empty()) {
-            for (List<Token> variables : unused) {
-                for (Token variable : variables) {
-                    Lox.warn(variable, "Variable is never used.");
-                }
-            }
+    // Takes in what another resolver learned about the top level while it
+    // resolved an earlier piece of the same program.
+    public void merge(Resolver piece) {
+        globals.addAll(piece.globals);
+        usedGlobals.addAll(piece.usedGlobals);
+        frame.layout.size = Math.max(frame.layout.size, piece.frame.layout.size);
+    }
+
+    // Resolves a module. Its top level variables are there for the modules
+    // that import it, so they aren't warned about.
+    public void resolveModule(List<Stmt> statements) {
+        resolveStatements(statements);
+        interpreter.resolveScript(frame.layout.size);
+    }
+
+    // Ends a program resolved a statement at a time.
+    public void finish() {
+        interpreter.resolveScript(frame.layout.size);
+
+        // Check unused top level variables, locals are checked as their
+        // scope ends.
+        for (Token variable : globals) {
+            if (!usedGlobals.contains(variable.lexeme)) Lox.warn(variable, "Variable is never used.");
         }
     }
 
@@ -59,56 +151,183 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.accept(this);
     }
 
-    private void resolveFunction(List<Token> params, List<Stmt> body, FunctionType type) {
+    private FrameLayout resolveFunction(List<Token> params, List<Stmt> body, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        boolean enclosingYields = currentYields;
         currentFunction = type;
+        currentYields = false;
+        frame = new Frame(frame);
+
+        // The body may run at any later point, or never, so what it assigns
+        // says nothing about the code after it.
+        int mark = assigned.size();
+
+        FrameLayout layout = frame.layout;
+        layout.params = new Binding[params.size()];
 
         beginScope();
-        for (Token param : params) {
-            declare(param);
-            define(param);
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            layout.self = declareSynthetic("this");
+        }
+
+        for (int i = 0; i < params.size(); i++) {
+            layout.params[i] = declare(params.get(i));
+            define(params.get(i));
+            assign(params.get(i));
         }
         resolveStatements(body);
         endScope();
+        undo(mark);
+
+        layout.captures = frame.captures.toArray(new Binding[0]);
+        layout.generator = currentYields;
 
+        frame = frame.enclosing;
         currentFunction = enclosingFunction;
+        currentYields = enclosingYields;
+        return layout;
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<>());
-        unused.push(new ArrayList<>());
+        scopes.add(new Scope(frame));
     }
 
     private void endScope() {
-        scopes.pop();
-        unused.pop();
+        Scope scope = scopes.removeLast();
+        scope.frame.slots = scope.firstSlot;
+
+        for (Local local : scope.locals) {
+            if (local.declaration != null && !local.used) Lox.warn(local.declaration, "Variable is never used.");
+        }
+
+        // Latest first, so a name declared twice by mistake unwinds cleanly.
+        for (int i = scope.locals.size() - 1; i >= 0; i--) {
+            Local local = scope.locals.get(i);
+            if (local.shadowed == null) {
+                visible.remove(local.name);
+            } else {
+                visible.put(local.name, local.shadowed);
+            }
+        }
     }
 
-    private void declare(Token name) {
-        if (scopes.empty()) return;
+    private Binding declare(Token name) {
+        return declare(name, null);
+    }
 
-        Map<String, Boolean> scope = scopes.peek();
+    private Binding declare(Token name, Token declaration) {
+        if (scopes.isEmpty()) return null;
 
-        if (scope.containsKey(name.lexeme)) {
+        Local shadowed = visible.get(name.lexeme);
+        if (shadowed != null && shadowed.scope == scopes.getLast()) {
             Lox.error(name, "Already a variable with this name in this scope.");
         }
 
-        scope.put(name.lexeme, false);
+        return add(name.lexeme, declaration).binding;
+    }
+
+    // Declares a defined local the user can't write, like "this" or "super".
+    private Binding declareSynthetic(String name) {
+        Local local = add(name, null);
+        local.defined = true;
+        local.assigned = true;
+        return local.binding;
+    }
+
+    private Local add(String name, Token declaration) {
+        Scope scope = scopes.getLast();
+        Local local = new Local(name, declaration, allocate(), scope, visible.get(name));
+
+        scope.locals.add(local);
+        visible.put(name, local);
+        return local;
+    }
+
+    private Binding allocate() {
+        Binding binding = new Binding(false, frame.slots++);
+        frame.layout.size = Math.max(frame.layout.size, frame.slots);
+        return binding;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        visible.get(name.lexeme).defined = true;
+    }
+
+    // Null means the name is global.
+    private Binding resolveLocal(Token name) {
+        Local local = visible.get(name.lexeme);
+        if (local == null) {
+            usedGlobals.add(name.lexeme);
+            return null;
+        }
+
+        local.used = true;
+        return capture(local.binding, local.scope.frame, frame);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                unused.get(i).remove(name);
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+    private Binding resolveLocal(String name) {
+        Local local = visible.get(name);
+        if (local == null) return null;
+
+        return capture(local.binding, local.scope.frame, frame);
+    }
+
+    private Local lookUp(String name) {
+        return visible.get(name);
+    }
+
+    private void assign(Token name) {
+        Local local = lookUp(name.lexeme);
+        if (local == null || local.assigned) return;
+
+        local.assigned = true;
+        assigned.add(local);
+    }
+
+    // Forgets the assignments made since the mark and returns them.
+    private List<Local> undo(int mark) {
+        List<Local> undone = new ArrayList<>(assigned.subList(mark, assigned.size()));
+        assigned.subList(mark, assigned.size()).clear();
+
+        for (Local local : undone) {
+            local.assigned = false;
+        }
+
+        return undone;
+    }
+
+    // Keeps what both branches assigned, either one may be the one that ran.
+    private void join(List<Local> left, List<Local> right) {
+        for (Local local : right) {
+            local.inOtherBranch = true;
+        }
+
+        for (Local local : left) {
+            if (local.inOtherBranch && !local.assigned) {
+                local.assigned = true;
+                assigned.add(local);
             }
         }
+
+        for (Local local : right) {
+            local.inOtherBranch = false;
+        }
+    }
+
+    // Threads a binding owned by an enclosing function down to the current
+    // one, one upvalue per function in between. Only the owner's slot gets
+    // boxed, everything else stays a plain frame slot.
+    private Binding capture(Binding binding, Frame owner, Frame current) {
+        if (current == owner) return binding;
+
+        Binding outer = capture(binding, owner, current.enclosing);
+        if (!outer.upvalue) outer.captured = true;
+
+        return current.upvalues.computeIfAbsent(outer, key -> {
+            current.captures.add(key);
+            return new Binding(true, current.captures.size() - 1);
+        });
     }
 
     // Declarations.
@@ -118,8 +337,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        stmt.binding = declare(stmt.name);
         define(stmt.name);
+        assign(stmt.name);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
             Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
@@ -132,20 +352,16 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            stmt.superBinding = declareSynthetic("super");
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType type = method.name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
 
-            resolveFunction(method.params, method.body, type);
+            method.layout = resolveFunction(method.params, method.body, type);
+            preload(method);
         }
 
-        endScope();
-
         if (stmt.superclass != null) endScope();
 
         currentClass = enclosingClass;
@@ -154,27 +370,38 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.binding = declare(stmt.name, stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name);
-        unused.peek().add(stmt.name);
+        if (stmt.initializer != null) assign(stmt.name);
+        if (stmt.binding == null) globals.add(stmt.name);
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.binding = declare(stmt.name);
         define(stmt.name);
+        assign(stmt.name);
 
-        resolveFunction(stmt.params, stmt.body, FunctionType.FUNCTION);
+        stmt.layout = resolveFunction(stmt.params, stmt.body, FunctionType.FUNCTION);
+        preload(stmt);
         return null;
     }
 
+    // A function that got compiled on an earlier run is compiled on its
+    // first call.
+    private void preload(Stmt.Function function) {
+        if (feedback.function(function.name, function.layout)) {
+            function.layout.calls = ClosureCompiler.THRESHOLD;
+        }
+    }
+
     @Override
     public Void visitLambdaStmt(Stmt.Lambda stmt) {
-        resolveFunction(stmt.params, stmt.body, FunctionType.LAMBDA);
+        stmt.layout = resolveFunction(stmt.params, stmt.body, FunctionType.LAMBDA);
         return null;
     }
 
@@ -183,8 +410,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
         resolve(stmt.condition);
+
+        int mark = assigned.size();
         resolve(stmt.thenBranch);
-        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        List<Local> thenAssigned = undo(mark);
+
+        if (stmt.elseBranch != null) {
+            resolve(stmt.elseBranch);
+            join(thenAssigned, undo(mark));
+        }
         return null;
     }
 
@@ -211,6 +445,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            Lox.error(stmt.keyword, "Can't yield from top-level code.");
+        } else if (currentFunction == FunctionType.INITIALIZER) {
+            Lox.error(stmt.keyword, "Can't yield from an initializer.");
+        }
+
+        currentYields = true;
+        if (stmt.value != null) resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if (!scopes.isEmpty()) Lox.error(stmt.keyword, "Can't import inside a block or function.");
+        return null;
+    }
+
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         return null;
@@ -218,8 +471,80 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.profile = feedback.loop(stmt);
         resolve(stmt.condition);
+
+        int mark = assigned.size();
+        resolve(stmt.body);
+        undo(mark);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        beginScope();
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        if (stmt.condition != null) resolve(stmt.condition);
+
+        Local counter = counter(stmt);
+        int writes = counter == null ? 0 : counter.writes;
+
+        int mark = assigned.size();
         resolve(stmt.body);
+        if (stmt.increment != null) resolve(stmt.increment);
+        undo(mark);
+
+        // The increment has to be the only thing writing the counter,
+        // closures in the body included.
+        if (counter != null && counter.writes == writes + 1) {
+            stmt.counter = counter.binding;
+        }
+
+        endScope();
+        return null;
+    }
+
+    // Matches `for (var i = start; i < limit; i = i + step)` with a literal
+    // step, which the interpreter runs on a primitive counter.
+    private Local counter(Stmt.For stmt) {
+        if (!(stmt.initializer instanceof Stmt.Var var) || var.initializer == null) return null;
+
+        if (!(stmt.condition instanceof Expr.Binary condition) || !isVariable(condition.left, var.name)) return null;
+        switch (condition.operator.type) {
+            case LESS, LESS_EQUAL, GREATER, GREATER_EQUAL -> {
+            }
+            default -> {
+                return null;
+            }
+        }
+
+        if (!(stmt.increment instanceof Expr.Assign increment)) return null;
+        if (!increment.name.lexeme.equals(var.name.lexeme)) return null;
+
+        if (!(increment.value instanceof Expr.Binary next) || !isVariable(next.left, var.name)) return null;
+        if (next.operator.type != TokenType.PLUS && next.operator.type != TokenType.MINUS) return null;
+        if (!(next.right instanceof Expr.Literal literal) || !(literal.value instanceof Double step)) return null;
+
+        stmt.step = next.operator.type == TokenType.PLUS ? step : -step;
+        return lookUp(var.name.lexeme);
+    }
+
+    private boolean isVariable(Expr expr, Token name) {
+        return expr instanceof Expr.Variable variable && variable.name.lexeme.equals(name.lexeme);
+    }
+
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        resolve(stmt.iterable);
+
+        int mark = assigned.size();
+        beginScope();
+        stmt.binding = declare(stmt.name);
+        define(stmt.name);
+        assign(stmt.name);
+        resolve(stmt.body);
+        endScope();
+        undo(mark);
         return null;
     }
 
@@ -248,32 +573,50 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.binding = resolveLocal(expr.name);
+        if (expr.binding == null) expr.global = interpreter.globalCell(expr.name.lexeme);
+        assign(expr.name);
+
+        Local target = lookUp(expr.name.lexeme);
+        if (target != null) target.writes++;
         return null;
     }
 
     @Override
     public Void visitTernaryExpr(Expr.Ternary expr) {
         resolve(expr.condition);
+
+        int mark = assigned.size();
         resolve(expr.left);
+        List<Local> leftAssigned = undo(mark);
         resolve(expr.right);
+        join(leftAssigned, undo(mark));
         return null;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        Local local = visible.get(expr.name.lexeme);
+        if (local != null && local.scope == scopes.getLast() && !local.defined) {
             Lox.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.binding = resolveLocal(expr.name);
+        if (expr.binding == null) expr.global = interpreter.globalCell(expr.name.lexeme);
+
+        // Reads the resolver can't prove safe keep the runtime check.
+        Local target = lookUp(expr.name.lexeme);
+        expr.checked = target != null && !target.assigned;
         return null;
     }
 
     @Override
     public Void visitLogicalExpr(Expr.Logical expr) {
         resolve(expr.left);
+
+        int mark = assigned.size();
         resolve(expr.right);
+        undo(mark);
         return null;
     }
 
@@ -312,7 +655,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitLambdaExpr(Expr.Lambda expr) {
-        resolveFunction(expr.params, expr.body, FunctionType.LAMBDA);
+        expr.layout = resolveFunction(expr.params, expr.body, FunctionType.LAMBDA);
         return null;
     }
 
@@ -323,6 +666,42 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // Collections.
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     // Classes.
 
     @Override
@@ -346,7 +725,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.binding = resolveLocal(expr.keyword);
+        expr.self = resolveLocal("this");
         return null;
     }
 
@@ -357,7 +737,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             return null;
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.binding = resolveLocal(expr.keyword);
         return null;
     }
 }
@@ -14,12 +14,36 @@ import static dev.carlinhos.lox.entities.TokenType.*;
 public class Scanner {
 
     private final String source;
+    // The module being scanned, null for the script being run.
+    private final String file;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private int lineStart = 0;
+    private int column = 1;
     private static final Map<String, TokenType> keywords;
 
+    // Runs of whitespace, names and digits are skipped with one table test
+    // per char, and string bodies and line comments end at an indexOf, which
+    // the JIT turns into a vector search.
+    private static final byte SPACE = 1;
+    private static final byte NAME = 2;
+    private static final byte DIGIT = 4;
+    private static final byte[] classes = new byte[128];
+
+    // Punctuation and keywords always have the same text, so their tokens
+    // share one lexeme instead of cutting a new one from the source.
+    private static final String[] lexemes = new String[TokenType.values().length];
+
+    static {
+        classes[' '] = classes['\r'] = classes['\t'] = SPACE;
+        classes['_'] = NAME;
+        for (char c = 'a'; c <= 'z'; c++) classes[c] = NAME;
+        for (char c = 'A'; c <= 'Z'; c++) classes[c] = NAME;
+        for (char c = '0'; c <= '9'; c++) classes[c] = NAME | DIGIT;
+    }
+
     static {
         keywords = new HashMap<>();
         keywords.put("and", AND);
@@ -39,20 +63,57 @@ public class Scanner {
         keywords.put("var", VAR);
         keywords.put("while", WHILE);
         keywords.put("break", BREAK);
+        keywords.put("in", IN);
+        keywords.put("yield", YIELD);
+        keywords.put("import", IMPORT);
+
+        lexemes[LEFT_PAREN.ordinal()] = "(";
+        lexemes[RIGHT_PAREN.ordinal()] = ")";
+        lexemes[LEFT_BRACE.ordinal()] = "{";
+        lexemes[RIGHT_BRACE.ordinal()] = "}";
+        lexemes[LEFT_BRACKET.ordinal()] = "[";
+        lexemes[RIGHT_BRACKET.ordinal()] = "]";
+        lexemes[COMMA.ordinal()] = ",";
+        lexemes[DOT.ordinal()] = ".";
+        lexemes[MINUS.ordinal()] = "-";
+        lexemes[PLUS.ordinal()] = "+";
+        lexemes[SEMICOLON.ordinal()] = ";";
+        lexemes[SLASH.ordinal()] = "/";
+        lexemes[STAR.ordinal()] = "*";
+        lexemes[QUESTION_MARK.ordinal()] = "?";
+        lexemes[COLON.ordinal()] = ":";
+        lexemes[BANG.ordinal()] = "!";
+        lexemes[BANG_EQUAL.ordinal()] = "!=";
+        lexemes[EQUAL.ordinal()] = "=";
+        lexemes[EQUAL_EQUAL.ordinal()] = "==";
+        lexemes[GREATER.ordinal()] = ">";
+        lexemes[GREATER_EQUAL.ordinal()] = ">=";
+        lexemes[LESS.ordinal()] = "<";
+        lexemes[LESS_EQUAL.ordinal()] = "<=";
+        keywords.forEach((text, type) -> lexemes[type.ordinal()] = text);
     }
 
     public Scanner(String source) {
+        this(source, null);
+    }
+
+    public Scanner(String source, String file) {
         this.source = source;
+        this.file = file;
     }
 
     public List<Token> scanTokens() {
         while (!isAtEnd()) {
+            skipWhitespace();
+            if (isAtEnd()) break;
+
             // We are at the beginning of the next lexeme.
             start = current;
+            column = start - lineStart + 1;
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
+        tokens.add(new Token(EOF, "", null, line, current - lineStart + 1, file));
         return tokens;
     }
 
@@ -83,8 +144,9 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        String text = lexemes[type.ordinal()];
+        if (text == null) text = source.substring(start, current);
+        tokens.add(new Token(type, text, literal, line, column, file));
     }
 
     private void scanToken() {
@@ -102,6 +164,12 @@ public class Scanner {
             case '}':
                 addToken(RIGHT_BRACE);
                 break;
+            case '[':
+                addToken(LEFT_BRACKET);
+                break;
+            case ']':
+                addToken(RIGHT_BRACKET);
+                break;
             case ',':
                 addToken(COMMA);
                 break;
@@ -146,16 +214,6 @@ public class Scanner {
                 else addToken(SLASH);
                 break;
 
-            case ' ':
-            case '\r':
-            case '\t':
-                // Ignore whitespace.
-                break;
-
-            case '\n':
-                line++;
-                break;
-
             case '"':
                 string();
                 break;
@@ -166,30 +224,63 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    Lox.error(file, line, "Unexpected character.");
                 }
                 break;
         }
     }
 
+    private void skipWhitespace() {
+        int end = source.length();
+        while (current < end) {
+            char c = source.charAt(current);
+            if (c == '\n') {
+                line++;
+                lineStart = current + 1;
+            } else if (c >= 128 || classes[c] != SPACE) {
+                return;
+            }
+            current++;
+        }
+    }
+
+    // Where the run of chars of the given class starting at from ends.
+    private int skip(int from, byte kind) {
+        int end = source.length();
+        while (from < end) {
+            char c = source.charAt(from);
+            if (c >= 128 || (classes[c] & kind) == 0) break;
+            from++;
+        }
+
+        return from;
+    }
+
     private void identifier() {
-        while (isAlphaNumeric(peek())) advance();
+        current = skip(current, NAME);
 
         String text = source.substring(start, current);
         TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        if (type == null) {
+            tokens.add(new Token(IDENTIFIER, text, null, line, column, file));
+        } else {
+            addToken(type);
+        }
     }
 
     private void number() {
-        while (isDigit(peek())) advance();
+        current = skip(current, DIGIT);
 
         // Look for a fractional part.
         if (peek() == '.' && isDigit(peekNext())) {
             // Consume the "."
-
-            do advance();
-            while (isDigit(peek()));
+            current = skip(current + 1, DIGIT);
+        } else if (current - start <= 15) {
+            // Whole numbers this short are exact as doubles.
+            long value = 0;
+            for (int i = start; i < current; i++) value = value * 10 + (source.charAt(i) - '0');
+            addToken(NUMBER, (double) value);
+            return;
         }
 
         addToken(NUMBER,
@@ -197,18 +288,23 @@ public class Scanner {
     }
 
     private void string() {
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
-            advance();
+        int close = source.indexOf('"', current);
+        int end = close < 0 ? source.length() : close;
+
+        for (int newline = source.indexOf('\n', current); newline >= 0 && newline < end;
+             newline = source.indexOf('\n', newline + 1)) {
+            line++;
+            lineStart = newline + 1;
         }
 
-        if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+        if (close < 0) {
+            current = end;
+            Lox.error(file, line, "Unterminated string.");
             return;
         }
 
         // The closing ".
-        advance();
+        current = close + 1;
 
         // Trim the surrounding quotes.
         String value = source.substring(start + 1, current - 1);
@@ -217,7 +313,8 @@ public class Scanner {
 
     private void lineComment() {
         // A line comment goes until the end of the line.
-        while (peek() != '\n' && !isAtEnd()) advance();
+        int newline = source.indexOf('\n', current);
+        current = newline < 0 ? source.length() : newline;
     }
 
     private void blockComment() {
@@ -226,7 +323,7 @@ public class Scanner {
             advance();
 
             if (isAtEnd()) {
-                Lox.error(line, "Unterminated block comment.");
+                Lox.error(file, line, "Unterminated block comment.");
                 return;
             }
 
@@ -244,10 +341,6 @@ public class Scanner {
         return c >= '0' && c <= '9';
     }
 
-    private boolean isAlphaNumeric(char c) {
-        return isAlpha(c) || isDigit(c);
-    }
-
     private boolean isAtEnd() {
         return current >= source.length();
     }
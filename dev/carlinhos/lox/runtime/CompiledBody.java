@@ -0,0 +1,11 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Cell;
+import dev.carlinhos.lox.passes.Interpreter;
+
+// A function body or a hot loop compiled to closures, run in place of
+// walking its statements. A function body returns what the function
+// returned, null for nil, a loop trace returns how the loop ended.
+public interface CompiledBody {
+    Object run(Interpreter interpreter, Object[] frame, Cell[] upvalues);
+}
@@ -0,0 +1,476 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.Lox;
+import dev.carlinhos.lox.entities.Cell;
+import dev.carlinhos.lox.entities.Expr;
+import dev.carlinhos.lox.entities.Stmt;
+import dev.carlinhos.lox.entities.TypeFeedback;
+import dev.carlinhos.lox.passes.CompactAst;
+import dev.carlinhos.lox.passes.Interpreter;
+import dev.carlinhos.lox.passes.Resolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The globals a prelude left, written out so later runs can start from them
+// instead of running the prelude again. An image holds the prelude's code as
+// a compact AST and its heap as records: classes, functions and lambdas with
+// the cells they closed over, instances, lists, maps, and the numbers,
+// strings, booleans and nils inside them.
+//
+// Loading maps the file and defines each global without reading its value.
+// A global's records are read the first time it's used, sharing whatever it
+// reaches with the globals read before it. Functions are given their code by
+// decoding and resolving the top level statement that declared them, also on
+// first use. They're resolved against the prelude's own type feedback, never
+// the script's.
+public class HeapImage {
+
+    private static final int MAGIC = 0x4c4f5849;
+    private static final int VERSION = 2;
+
+    // Value tags.
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte OBJECT = 5;
+
+    // Record kinds.
+    private static final byte CELL = 0;
+    private static final byte CLASS = 1;
+    private static final byte FUNCTION = 2;
+    private static final byte LAMBDA = 3;
+    private static final byte INSTANCE = 4;
+    private static final byte LIST = 5;
+    private static final byte MAP = 6;
+
+    // A global whose value is still in the image.
+    public static final class LazyGlobal extends Cell {
+        private final HeapImage image;
+        private final int position;
+        private boolean loaded = false;
+
+        private LazyGlobal(HeapImage image, int position) {
+            super(null);
+            this.image = image;
+            this.position = position;
+        }
+
+        public Object load() {
+            synchronized (image) {
+                if (!loaded) {
+                    loaded = true;
+                    value = image.value(new Reader(image.buffer, position));
+                }
+                return value;
+            }
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final Interpreter interpreter;
+    private final int astPosition;
+    private final int astLength;
+    private final int[] recordPositions;
+    private final Object[] records;
+
+    private CompactAst ast;
+    private final TypeFeedback feedback;
+    private final Map<Integer, Object> functions = new HashMap<>();
+    private final boolean[] resolved;
+
+    private HeapImage(ByteBuffer buffer, Interpreter interpreter) throws IOException {
+        this.buffer = buffer;
+        this.interpreter = interpreter;
+
+        Reader in = new Reader(buffer, 0);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a heap image for this version of Lox.");
+        }
+
+        // The prelude's path and the hash of its source, for its profile.
+        Path prelude = Path.of(in.readString());
+        feedback = TypeFeedback.forHash(prelude, in.readString());
+
+        int statements = in.readInt();
+        resolved = new boolean[statements];
+        astLength = in.readInt();
+        astPosition = in.position;
+        in.position += astLength;
+
+        recordPositions = new int[in.readInt()];
+        for (int i = 0; i < recordPositions.length; i++) recordPositions[i] = in.readInt();
+        records = new Object[recordPositions.length];
+
+        int globals = in.readInt();
+        for (int i = 0; i < globals; i++) {
+            String name = in.readString();
+            interpreter.defineLazyGlobal(name, new LazyGlobal(this, in.position));
+            in.skipValue();
+        }
+    }
+
+    public static void load(Path file, Interpreter interpreter) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            new HeapImage(buffer, interpreter);
+        }
+    }
+
+    // Reading.
+
+    private Object value(Reader in) {
+        return switch (in.readByte()) {
+            case NIL -> null;
+            case FALSE -> false;
+            case TRUE -> true;
+            case NUMBER -> in.readDouble();
+            case STRING -> in.readString();
+            default -> record(in.readInt());
+        };
+    }
+
+    private Object record(int id) {
+        if (records[id] != null) return records[id];
+
+        // Containers are remembered before what they hold is read, so cycles
+        // through them come back to the same object.
+        Reader in = new Reader(buffer, recordPositions[id]);
+        switch (in.readByte()) {
+            case CELL -> {
+                Cell cell = new Cell(null);
+                records[id] = cell;
+                cell.value = value(in);
+            }
+            case CLASS -> {
+                String name = in.readString();
+                LoxClass superclass = (LoxClass) value(in);
+                LoxClass klass = new LoxClass(name, superclass, new HashMap<>());
+                records[id] = klass;
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String method = in.readString();
+                    klass.methods.put(method, (LoxFunction) value(in));
+                }
+            }
+            case FUNCTION -> {
+                Stmt.Function declaration = (Stmt.Function) declaration(in.readInt(), in.readInt());
+                boolean isInitializer = in.readByte() != 0;
+                LoxInstance self = (LoxInstance) value(in);
+                Cell[] upvalues = new Cell[in.readInt()];
+
+                LoxFunction function = new LoxFunction(declaration, upvalues, isInitializer);
+                records[id] = self == null ? function : function.bind(self);
+                for (int i = 0; i < upvalues.length; i++) upvalues[i] = (Cell) record(in.readInt());
+            }
+            case LAMBDA -> {
+                Object declaration = declaration(in.readInt(), in.readInt());
+                Cell[] upvalues = new Cell[in.readInt()];
+
+                records[id] = declaration instanceof Expr.Lambda lambda
+                        ? new LoxLambda(lambda, upvalues)
+                        : new LoxLambda((Stmt.Lambda) declaration, upvalues);
+                for (int i = 0; i < upvalues.length; i++) upvalues[i] = (Cell) record(in.readInt());
+            }
+            case INSTANCE -> {
+                LoxInstance instance = new LoxInstance((LoxClass) value(in));
+                records[id] = instance;
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String field = in.readString();
+                    instance.fields.put(field, value(in));
+                }
+            }
+            case LIST -> {
+                LoxList list = new LoxList();
+                records[id] = list;
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) list.add(value(in));
+            }
+            default -> {
+                LoxMap map = new LoxMap();
+                records[id] = map;
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Object key = value(in);
+                    map.put(null, key, value(in));
+                }
+            }
+        }
+
+        return records[id];
+    }
+
+    // The function node at an offset of the prelude's AST, decoding and
+    // resolving its top level statement the first time one of its
+    // functions is needed.
+    private Object declaration(int statement, int offset) {
+        if (!resolved[statement]) {
+            resolved[statement] = true;
+
+            if (ast == null) {
+                byte[] bytes = new byte[astLength];
+                buffer.get(astPosition, bytes);
+                try {
+                    ast = CompactAst.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Corrupt heap image.", e);
+                }
+            }
+
+            // The prelude was checked when the image was made, so anything
+            // the resolver has to say about it again is dropped.
+            List<Stmt> statements = List.of(ast.statement(statement, functions));
+            new Lox.Reports().hold(() -> new Resolver(interpreter, feedback).resolveStatements(statements));
+        }
+
+        return functions.get(offset);
+    }
+
+    // Writing.
+
+    // Writes the globals a prelude's statements declared, and everything
+    // they reach, to an image.
+    public static void write(Path file, Path prelude, String hash, List<Stmt> statements,
+                             Map<String, Object> globals) throws IOException {
+        CompactAst ast = new CompactAst();
+        ast.trackFunctions();
+        for (Stmt statement : statements) ast.add(statement);
+
+        Writer writer = new Writer(ast);
+        ByteArrayOutputStream globalBytes = new ByteArrayOutputStream();
+        DataOutputStream globalData = new DataOutputStream(globalBytes);
+        globalData.writeInt(globals.size());
+        for (Map.Entry<String, Object> global : globals.entrySet()) {
+            writeString(globalData, global.getKey());
+            writer.value(globalData, global.getValue(), global.getKey());
+        }
+        writer.drain();
+
+        ByteArrayOutputStream sourceBytes = new ByteArrayOutputStream();
+        DataOutputStream sourceData = new DataOutputStream(sourceBytes);
+        writeString(sourceData, prelude.toAbsolutePath().normalize().toString());
+        writeString(sourceData, hash);
+
+        ByteArrayOutputStream astBytes = new ByteArrayOutputStream();
+        ast.write(new DataOutputStream(astBytes));
+
+        int headerSize = 2 * Integer.BYTES + sourceBytes.size() + 2 * Integer.BYTES + astBytes.size()
+                + Integer.BYTES + writer.positions.size() * Integer.BYTES + globalBytes.size();
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            sourceBytes.writeTo(out);
+            out.writeInt(ast.size());
+            out.writeInt(astBytes.size());
+            astBytes.writeTo(out);
+
+            out.writeInt(writer.positions.size());
+            for (int position : writer.positions) out.writeInt(headerSize + position);
+
+            globalBytes.writeTo(out);
+            writer.records.writeTo(out);
+        }
+    }
+
+    private static final class Writer {
+        private final CompactAst ast;
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+        private final Map<Object, String> owners = new IdentityHashMap<>();
+
+        private final List<Integer> positions = new ArrayList<>();
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(records);
+
+        Writer(CompactAst ast) {
+            this.ast = ast;
+        }
+
+        // Writes a value, giving objects an id and queueing their records.
+        // The global is only there for error messages.
+        void value(DataOutputStream data, Object value, String global) throws IOException {
+            if (value == null) {
+                data.writeByte(NIL);
+            } else if (value instanceof Boolean bool) {
+                data.writeByte(bool ? TRUE : FALSE);
+            } else if (value instanceof Double number) {
+                data.writeByte(NUMBER);
+                data.writeDouble(number);
+            } else if (value instanceof CharSequence text) {
+                data.writeByte(STRING);
+                writeString(data, text.toString());
+            } else {
+                data.writeByte(OBJECT);
+                data.writeInt(id(value, global));
+            }
+        }
+
+        private int id(Object object, String global) {
+            Integer id = ids.get(object);
+            if (id != null) return id;
+
+            if (!(object instanceof Cell || object instanceof LoxClass || object instanceof LoxFunction
+                    || object instanceof LoxLambda || object instanceof LoxInstance
+                    || object instanceof LoxList || object instanceof LoxMap)) {
+                throw new IllegalArgumentException(
+                        "Global '" + global + "' holds " + object + ", which can't go in a heap image.");
+            }
+
+            id = ids.size();
+            ids.put(object, id);
+            owners.put(object, global);
+            pending.add(object);
+            return id;
+        }
+
+        private void cells(Cell[] upvalues, String global) throws IOException {
+            out.writeInt(upvalues.length);
+            for (Cell cell : upvalues) out.writeInt(id(cell, global));
+        }
+
+        private void declaration(Object function, String global) throws IOException {
+            int offset = ast.offsetOf(function);
+            if (offset < 0) {
+                throw new IllegalArgumentException(
+                        "Global '" + global + "' holds a function from outside the prelude.");
+            }
+
+            out.writeInt(ast.statementOf(offset));
+            out.writeInt(offset);
+        }
+
+        // Records are written in id order.
+        void drain() throws IOException {
+            while (!pending.isEmpty()) {
+                Object object = pending.poll();
+                String global = owners.get(object);
+                positions.add(out.size());
+
+                if (object instanceof Cell cell) {
+                    out.writeByte(CELL);
+                    value(out, cell.value, global);
+                } else if (object instanceof LoxClass klass) {
+                    out.writeByte(CLASS);
+                    writeString(out, klass.name);
+                    value(out, klass.superclass, global);
+                    out.writeInt(klass.methods.size());
+                    for (Map.Entry<String, LoxFunction> method : klass.methods.entrySet()) {
+                        writeString(out, method.getKey());
+                        value(out, method.getValue(), global);
+                    }
+                } else if (object instanceof LoxFunction function) {
+                    out.writeByte(FUNCTION);
+                    declaration(function.declaration, global);
+                    out.writeByte(function.isInitializer ? 1 : 0);
+                    value(out, function.self, global);
+                    cells(function.upvalues, global);
+                } else if (object instanceof LoxLambda lambda) {
+                    out.writeByte(LAMBDA);
+                    declaration(lambda.declaration, global);
+                    cells(lambda.upvalues, global);
+                } else if (object instanceof LoxInstance instance) {
+                    out.writeByte(INSTANCE);
+                    value(out, instance.klass, global);
+                    out.writeInt(instance.fields.size());
+                    for (Map.Entry<String, Object> field : instance.fields.entrySet()) {
+                        writeString(out, field.getKey());
+                        value(out, field.getValue(), global);
+                    }
+                } else if (object instanceof LoxList list) {
+                    out.writeByte(LIST);
+                    out.writeInt(list.size());
+                    for (Object element : list.toArray()) value(out, element, global);
+                } else {
+                    LoxMap map = (LoxMap) object;
+                    Object[] keys = map.keys().toArray();
+                    Object[] values = map.values().toArray();
+
+                    out.writeByte(MAP);
+                    out.writeInt(keys.length);
+                    for (int i = 0; i < keys.length; i++) {
+                        value(out, keys[i], global);
+                        value(out, values[i], global);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Reads the mapped image from a position on, leaving the buffer's own
+    // position alone so readers don't get in each other's way.
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private int position;
+
+        Reader(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        byte readByte() {
+            return buffer.get(position++);
+        }
+
+        int readInt() {
+            int value = buffer.getInt(position);
+            position += Integer.BYTES;
+            return value;
+        }
+
+        double readDouble() {
+            double value = buffer.getDouble(position);
+            position += Double.BYTES;
+            return value;
+        }
+
+        String readString() {
+            byte[] bytes = new byte[readInt()];
+            buffer.get(position, bytes);
+            position += bytes.length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void skipValue() {
+            switch (readByte()) {
+                case NUMBER -> position += Double.BYTES;
+                case STRING -> {
+                    int length = readInt();
+                    position += length;
+                }
+                case OBJECT -> position += Integer.BYTES;
+                default -> {
+                }
+            }
+        }
+    }
+}
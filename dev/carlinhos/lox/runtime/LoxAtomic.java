@@ -0,0 +1,67 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.passes.Interpreter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+public class LoxAtomic implements LoxObject {
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(LoxAtomic.class, "value", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile Object value;
+
+    public LoxAtomic(Object value) {
+        this.value = value;
+    }
+
+    public boolean compareAndSet(Object expected, Object update) {
+        // Lox equality is by value, so retry while the current reference is
+        // equal to the expected one but was swapped by another thread.
+        for (; ; ) {
+            Object current = value;
+            if (!Interpreter.isEqual(current, expected)) return false;
+            if (VALUE.compareAndSet(this, current, update)) return true;
+        }
+    }
+
+    public double addAndGet(double delta) {
+        for (; ; ) {
+            Object current = value;
+            if (!(current instanceof Double)) {
+                throw new RuntimeError("Atomic value must be a number.");
+            }
+
+            double next = (double) current + delta;
+            if (VALUE.compareAndSet(this, current, next)) return next;
+        }
+    }
+
+    @Override
+    public Object get(Token name) {
+        return switch (name.lexeme) {
+            case "get" -> new LoxNative(0, (interpreter, arguments) -> value);
+            case "set" -> new LoxNative(1, (interpreter, arguments) -> value = arguments.get(0));
+            case "getAndSet" -> new LoxNative(1, (interpreter, arguments) -> VALUE.getAndSet(this, arguments.get(0)));
+            case "compareAndSet" -> new LoxNative(2, (interpreter, arguments) ->
+                    compareAndSet(arguments.get(0), arguments.get(1)));
+            case "addAndGet" -> new LoxNative(1, (interpreter, arguments) ->
+                    addAndGet(LoxNative.number(arguments.get(0), "Delta")));
+            default -> throw LoxNative.undefined(name);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "<atomic " + Interpreter.stringify(value) + ">";
+    }
+}
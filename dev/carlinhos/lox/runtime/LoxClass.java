@@ -8,7 +8,7 @@ import java.util.Map;
 public class LoxClass implements LoxCallable {
 
     final String name;
-    private final Map<String, LoxFunction> methods;
+    final Map<String, LoxFunction> methods;
     final LoxClass superclass;
 
     public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
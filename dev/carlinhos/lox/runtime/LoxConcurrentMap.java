@@ -0,0 +1,69 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LoxConcurrentMap implements LoxObject {
+
+    // ConcurrentHashMap rejects null values, so nil is stored as a marker.
+    private static final Object NIL = new Object();
+
+    private final ConcurrentHashMap<Object, Object> entries = new ConcurrentHashMap<>();
+
+    private static Object key(Object key) {
+        if (key == null) throw new RuntimeError("Map key can't be nil.");
+        return LoxString.normalize(key);
+    }
+
+    private static Object wrap(Object value) {
+        return value == null ? NIL : value;
+    }
+
+    private static Object unwrap(Object value) {
+        return value == NIL ? null : value;
+    }
+
+    public Object get(Object key) {
+        return unwrap(entries.get(key(key)));
+    }
+
+    public Object put(Object key, Object value) {
+        return unwrap(entries.put(key(key), wrap(value)));
+    }
+
+    public double addAndGet(Object key, double delta) {
+        Object result = entries.merge(key(key), delta, (current, ignored) -> {
+            if (!(current instanceof Double)) {
+                throw new RuntimeError("Map value must be a number.");
+            }
+
+            return (double) current + delta;
+        });
+
+        return (double) result;
+    }
+
+    @Override
+    public Object get(Token name) {
+        return switch (name.lexeme) {
+            case "get" -> new LoxNative(1, (interpreter, arguments) -> get(arguments.get(0)));
+            case "put" -> new LoxNative(2, (interpreter, arguments) -> put(arguments.get(0), arguments.get(1)));
+            case "putIfAbsent" -> new LoxNative(2, (interpreter, arguments) ->
+                    unwrap(entries.putIfAbsent(key(arguments.get(0)), wrap(arguments.get(1)))));
+            case "remove" -> new LoxNative(1, (interpreter, arguments) ->
+                    unwrap(entries.remove(key(arguments.get(0)))));
+            case "containsKey" -> new LoxNative(1, (interpreter, arguments) ->
+                    entries.containsKey(key(arguments.get(0))));
+            case "addAndGet" -> new LoxNative(2, (interpreter, arguments) ->
+                    addAndGet(arguments.get(0), LoxNative.number(arguments.get(1), "Delta")));
+            case "size" -> new LoxNative(0, (interpreter, arguments) -> (double) entries.size());
+            default -> throw LoxNative.undefined(name);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "<concurrent map>";
+    }
+}
@@ -0,0 +1,81 @@
+package dev.carlinhos.lox.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.*;
+
+public final class LoxFiles {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private LoxFiles() {
+    }
+
+    public static LoxIterator readLines(String path) {
+        try {
+            return new LoxLineReader(FileChannel.open(path(path), READ), true);
+        } catch (IOException error) {
+            throw new RuntimeError("Can't open '" + path + "': " + reason(error) + ".");
+        }
+    }
+
+    public static LoxIterator stdinLines() {
+        return new LoxLineReader(Channels.newChannel(System.in), false);
+    }
+
+    public static void write(String path, String text, boolean append) {
+        OpenOption[] options = append
+                ? new OpenOption[]{CREATE, WRITE, APPEND}
+                : new OpenOption[]{CREATE, WRITE, TRUNCATE_EXISTING};
+
+        try (FileChannel channel = FileChannel.open(path(path), options)) {
+            CharsetEncoder encoder = Charset.defaultCharset().newEncoder();
+            CharBuffer chars = CharBuffer.wrap(text);
+            ByteBuffer bytes = ByteBuffer.allocate(Math.min(BUFFER_SIZE, Math.max(16, text.length() * 4)));
+
+            // Encode a buffer at a time instead of materializing the whole byte[].
+            for (; ; ) {
+                CoderResult result = encoder.encode(chars, bytes, true);
+                if (result.isError()) result.throwException();
+
+                bytes.flip();
+                while (bytes.hasRemaining()) channel.write(bytes);
+                bytes.clear();
+
+                if (result.isUnderflow()) break;
+            }
+
+            encoder.flush(bytes);
+            bytes.flip();
+            while (bytes.hasRemaining()) channel.write(bytes);
+        } catch (IOException error) {
+            throw new RuntimeError("Can't write '" + path + "': " + reason(error) + ".");
+        }
+    }
+
+    private static String reason(IOException error) {
+        if (error instanceof NoSuchFileException) return "no such file";
+        if (error instanceof AccessDeniedException) return "access denied";
+        return error.getMessage();
+    }
+
+    private static Path path(String path) {
+        try {
+            return Paths.get(path);
+        } catch (IllegalArgumentException error) {
+            throw new RuntimeError("Invalid path '" + path + "'.");
+        }
+    }
+}
@@ -1,27 +1,34 @@
 package dev.carlinhos.lox.runtime;
 
+import dev.carlinhos.lox.entities.Cell;
+import dev.carlinhos.lox.entities.FrameLayout;
 import dev.carlinhos.lox.entities.Return;
 import dev.carlinhos.lox.entities.Stmt;
+import dev.carlinhos.lox.passes.ClosureCompiler;
 import dev.carlinhos.lox.passes.Interpreter;
 
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
 
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Function declaration;
+    final Cell[] upvalues;
+    final boolean isInitializer;
+    final LoxInstance self;
 
-    public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    public LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer) {
+        this(declaration, upvalues, isInitializer, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer, LoxInstance self) {
         this.isInitializer = isInitializer;
-        this.closure = closure;
+        this.upvalues = upvalues;
         this.declaration = declaration;
+        this.self = self;
     }
 
     public LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, upvalues, isInitializer, instance);
     }
 
     @Override
@@ -37,21 +44,32 @@ public class LoxFunction implements LoxCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
 
-        Environment environment = new Environment(closure);
+        FrameLayout layout = declaration.layout;
+        Object[] frame = layout.enter(self, arguments);
+
+        if (layout.generator) {
+            return new LoxGenerator(interpreter, declaration.body, frame, upvalues);
+        }
 
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        // Bodies start out interpreted and get compiled once they're hot.
+        CompiledBody compiled = layout.compiled;
+        if (compiled == null && ClosureCompiler.isHot(layout)) {
+            compiled = layout.compiled = ClosureCompiler.compile(interpreter, declaration.body);
         }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+        Object value = null;
+        if (compiled != null) {
+            value = compiled.run(interpreter, frame, upvalues);
+        } else {
+            try {
+                interpreter.executeBody(declaration.body, frame, upvalues);
+            } catch (Return returnValue) {
+                value = returnValue.value;
+            }
         }
 
-        if (isInitializer) return closure.getAt(0, "this");
+        if (isInitializer) return self;
 
-        return null;
+        return value;
     }
 }
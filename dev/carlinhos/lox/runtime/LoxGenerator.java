@@ -0,0 +1,164 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Cell;
+import dev.carlinhos.lox.entities.Return;
+import dev.carlinhos.lox.entities.Stmt;
+import dev.carlinhos.lox.passes.Interpreter;
+
+import java.lang.ref.Cleaner;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+
+// The result of calling a function that yields. Its body runs on a virtual
+// thread with its own interpreter and hands each yielded value over to the
+// consumer, parking until the next value is asked for.
+//
+// The body's thread only holds the generator's Producer. Once the program
+// drops the generator, before or after draining it, the cleaner interrupts
+// the thread so a body parked in a yield unwinds and its frame is freed.
+public class LoxGenerator implements LoxIterator {
+
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private static final Object RESUME = new Object();
+    private static final Object DONE = new Object();
+    private static final Object NIL = new Object();
+
+    private record Failure(Throwable error) {
+    }
+
+    // Unwinds the body of a generator that can no longer be resumed.
+    private static class Abandoned extends RuntimeException {
+        Abandoned() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Producer producer;
+
+    public LoxGenerator(Interpreter interpreter, List<Stmt> body, Object[] frame, Cell[] upvalues) {
+        this.producer = new Producer(interpreter, body, frame, upvalues);
+        cleaner.register(this, producer::abandon);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return producer.hasNext();
+    }
+
+    @Override
+    public Object next() {
+        return producer.next();
+    }
+
+    @Override
+    public String toString() {
+        return "<generator>";
+    }
+
+    // The generator's state, shared by the consumer and the body's thread.
+    public static final class Producer {
+        private final Interpreter worker;
+        private final List<Stmt> body;
+        private final Object[] frame;
+        private final Cell[] upvalues;
+        private final SynchronousQueue<Object> resumes = new SynchronousQueue<>();
+        private final SynchronousQueue<Object> yields = new SynchronousQueue<>();
+
+        private volatile Thread thread;
+        private volatile boolean abandoned = false;
+        private boolean finished = false;
+        private boolean buffered = false;
+        private Object value;
+
+        private Producer(Interpreter interpreter, List<Stmt> body, Object[] frame, Cell[] upvalues) {
+            this.worker = interpreter.fork(this);
+            this.body = body;
+            this.frame = frame;
+            this.upvalues = upvalues;
+        }
+
+        private boolean hasNext() {
+            if (buffered) return true;
+            if (finished) return false;
+
+            Object message;
+            try {
+                if (thread == null) {
+                    thread = Thread.ofVirtual().name("lox-generator").unstarted(this::run);
+                    thread.start();
+                } else {
+                    resumes.put(RESUME);
+                }
+
+                message = yields.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeError("Interrupted while waiting for a generator.");
+            }
+
+            if (message == DONE) {
+                finished = true;
+                return false;
+            }
+
+            if (message instanceof Failure failure) {
+                finished = true;
+                if (failure.error instanceof RuntimeException error) throw error;
+                throw (Error) failure.error;
+            }
+
+            value = message == NIL ? null : message;
+            buffered = true;
+            return true;
+        }
+
+        private Object next() {
+            hasNext();
+            buffered = false;
+
+            Object result = value;
+            value = null;
+            return result;
+        }
+
+        // Called by the worker interpreter on the generator's own thread.
+        public void yield(Object value) {
+            if (abandoned) throw new Abandoned();
+
+            try {
+                yields.put(value == null ? NIL : value);
+                resumes.take();
+            } catch (InterruptedException e) {
+                throw new Abandoned();
+            }
+        }
+
+        // Run by the cleaner once the generator is unreachable. A body that
+        // already finished, or never started, has nothing to unwind.
+        private void abandon() {
+            abandoned = true;
+            Thread running = thread;
+            if (running != null) running.interrupt();
+        }
+
+        private void run() {
+            Object last = DONE;
+
+            try {
+                worker.executeBody(body, frame, upvalues);
+            } catch (Return ignored) {
+                // A return ends the generator, its value has nowhere to go.
+            } catch (Abandoned abandoned) {
+                return;
+            } catch (Throwable error) {
+                last = new Failure(error);
+            }
+
+            try {
+                yields.put(last);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+}
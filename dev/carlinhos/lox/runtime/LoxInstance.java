@@ -5,15 +5,16 @@ import dev.carlinhos.lox.entities.Token;
 import java.util.HashMap;
 import java.util.Map;
 
-public class LoxInstance {
+public class LoxInstance implements LoxObject {
 
-    private final LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+    final Map<String, Object> fields = new HashMap<>();
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
     }
 
+    @Override
     public Object get(Token name) {
         if (fields.containsKey(name.lexeme)) {
             return fields.get(name.lexeme);
@@ -25,6 +26,7 @@ public class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    @Override
     public void set(Token name, Object value) {
         fields.put(name.lexeme, value);
     }
@@ -0,0 +1,50 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.entities.TokenType;
+import dev.carlinhos.lox.passes.Interpreter;
+
+import java.util.Collections;
+
+// Drives a user-defined iterable: its iterator() method returns an object
+// with hasNext() and next() methods.
+public class LoxInstanceIterator implements LoxIterator {
+
+    private final Interpreter interpreter;
+    private final LoxCallable hasNext;
+    private final LoxCallable next;
+
+    private LoxInstanceIterator(Interpreter interpreter, LoxCallable hasNext, LoxCallable next) {
+        this.interpreter = interpreter;
+        this.hasNext = hasNext;
+        this.next = next;
+    }
+
+    public static LoxIterator of(Interpreter interpreter, Token token, LoxInstance iterable) {
+        Object iterator = method(token, iterable, "iterator").call(interpreter, Collections.emptyList());
+
+        if (iterator instanceof LoxIterator) return (LoxIterator) iterator;
+        if (!(iterator instanceof LoxObject object)) {
+            throw new RuntimeError(token, "iterator() must return an object.");
+        }
+
+        return new LoxInstanceIterator(interpreter, method(token, object, "hasNext"), method(token, object, "next"));
+    }
+
+    private static LoxCallable method(Token token, LoxObject object, String name) {
+        Object method = object.get(new Token(TokenType.IDENTIFIER, name, null, token.line, token.column, token.file));
+        if (method instanceof LoxCallable callable && callable.arity() == 0) return callable;
+
+        throw new RuntimeError(token, "'" + name + "' must be a method without parameters.");
+    }
+
+    @Override
+    public boolean hasNext() {
+        return Interpreter.isTruthy(hasNext.call(interpreter, Collections.emptyList()));
+    }
+
+    @Override
+    public Object next() {
+        return next.call(interpreter, Collections.emptyList());
+    }
+}
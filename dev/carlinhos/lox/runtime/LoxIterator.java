@@ -0,0 +1,22 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+
+// Native iterators are driven from Lox through hasNext() and next().
+public interface LoxIterator extends LoxObject {
+    boolean hasNext();
+
+    Object next();
+
+    @Override
+    default Object get(Token name) {
+        return switch (name.lexeme) {
+            case "hasNext" -> new LoxNative(0, (interpreter, arguments) -> hasNext());
+            case "next" -> new LoxNative(0, (interpreter, arguments) -> {
+                if (!hasNext()) throw new RuntimeError("Iterator is exhausted.");
+                return next();
+            });
+            default -> throw LoxNative.undefined(name);
+        };
+    }
+}
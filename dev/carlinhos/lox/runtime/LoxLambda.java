@@ -1,5 +1,7 @@
 package dev.carlinhos.lox.runtime;
 
+import dev.carlinhos.lox.entities.Cell;
+import dev.carlinhos.lox.entities.FrameLayout;
 import dev.carlinhos.lox.entities.Return;
 import dev.carlinhos.lox.entities.Stmt;
 import dev.carlinhos.lox.entities.Expr;
@@ -10,20 +12,27 @@ import java.util.List;
 
 public class LoxLambda implements LoxCallable {
 
+    // The Stmt.Lambda or Expr.Lambda it was made from.
+    final Object declaration;
     private final List<Token> params;
     private final List<Stmt> body;
-    private final Environment closure;
+    private final FrameLayout layout;
+    final Cell[] upvalues;
 
-    public LoxLambda(Stmt.Lambda declaration, Environment closure) {
+    public LoxLambda(Stmt.Lambda declaration, Cell[] upvalues) {
+        this.declaration = declaration;
         this.params = declaration.params;
         this.body = declaration.body;
-        this.closure = closure;
+        this.layout = declaration.layout;
+        this.upvalues = upvalues;
     }
 
-    public LoxLambda(Expr.Lambda declaration, Environment closure) {
+    public LoxLambda(Expr.Lambda declaration, Cell[] upvalues) {
+        this.declaration = declaration;
         this.params = declaration.params;
         this.body = declaration.body;
-        this.closure = closure;
+        this.layout = declaration.layout;
+        this.upvalues = upvalues;
     }
 
     @Override
@@ -39,14 +48,14 @@ public class LoxLambda implements LoxCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
 
-        Environment environment = new Environment(closure);
+        Object[] frame = layout.enter(null, arguments);
 
-        for (int i = 0; i < params.size(); i++) {
-            environment.define(params.get(i).lexeme, arguments.get(i));
+        if (layout.generator) {
+            return new LoxGenerator(interpreter, body, frame, upvalues);
         }
 
         try {
-            interpreter.executeBlock(body, environment);
+            interpreter.executeBody(body, frame, upvalues);
         } catch (Return returnValue) {
             return returnValue.value;
         }
@@ -0,0 +1,117 @@
+package dev.carlinhos.lox.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+// Lazily splits a channel into lines. Bytes are decoded a buffer at a time,
+// so memory use depends on the longest line, not on the size of the input.
+public class LoxLineReader implements LoxIterator {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final boolean closeAtEnd;
+    private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE).limit(0);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE).limit(0);
+    private final StringBuilder line = new StringBuilder();
+    private boolean endOfInput = false;
+    private boolean finished = false;
+    private String next;
+
+    public LoxLineReader(ReadableByteChannel channel, boolean closeAtEnd) {
+        this.channel = channel;
+        this.closeAtEnd = closeAtEnd;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readLine();
+            } catch (IOException error) {
+                throw new RuntimeError("Can't read input: " + error.getMessage());
+            }
+        }
+
+        return next != null;
+    }
+
+    @Override
+    public Object next() {
+        hasNext();
+        String result = next;
+        next = null;
+        return result;
+    }
+
+    private String readLine() throws IOException {
+        char[] array = chars.array();
+
+        for (; ; ) {
+            if (!chars.hasRemaining() && !fill()) {
+                if (line.length() == 0) return null;
+                return takeLine();
+            }
+
+            int start = chars.position();
+            int end = chars.limit();
+            for (int i = start; i < end; i++) {
+                if (array[i] == '\n') {
+                    line.append(array, start, i - start);
+                    chars.position(i + 1);
+                    return takeLine();
+                }
+            }
+
+            line.append(array, start, end - start);
+            chars.position(end);
+        }
+    }
+
+    private String takeLine() {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') length--;
+
+        String text = line.substring(0, length);
+        line.setLength(0);
+        return text;
+    }
+
+    private boolean fill() throws IOException {
+        chars.clear();
+
+        while (!finished) {
+            decoder.decode(bytes, chars, endOfInput);
+
+            if (endOfInput) {
+                decoder.flush(chars);
+                finished = true;
+                if (closeAtEnd) channel.close();
+                break;
+            }
+
+            if (chars.position() > 0) break;
+
+            bytes.compact();
+            int read = channel.read(bytes);
+            bytes.flip();
+            if (read < 0) endOfInput = true;
+        }
+
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    @Override
+    public String toString() {
+        return "<line reader>";
+    }
+}
@@ -0,0 +1,154 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.passes.Interpreter;
+
+import java.util.Arrays;
+
+public class LoxList implements LoxObject {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // Elements live unboxed in numbers while every one of them is a number.
+    // The first non-number promotes the list to objects for good.
+    private double[] numbers;
+    private Object[] objects;
+    private int size;
+
+    public LoxList() {
+        this.numbers = new double[INITIAL_CAPACITY];
+    }
+
+    public LoxList(Object[] elements) {
+        this.size = elements.length;
+
+        for (Object element : elements) {
+            if (!(element instanceof Double)) {
+                this.objects = elements;
+                return;
+            }
+        }
+
+        this.numbers = new double[Math.max(size, INITIAL_CAPACITY)];
+        for (int i = 0; i < size; i++) {
+            numbers[i] = (double) elements[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Object get(int index) {
+        if (numbers != null) return numbers[index];
+        return objects[index];
+    }
+
+    public void set(int index, Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+
+            promote();
+        }
+
+        objects[index] = value;
+    }
+
+    public void add(Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                if (size == numbers.length) numbers = Arrays.copyOf(numbers, size * 2);
+                numbers[size++] = (double) value;
+                return;
+            }
+
+            promote();
+        }
+
+        if (size == objects.length) objects = Arrays.copyOf(objects, Math.max(size * 2, INITIAL_CAPACITY));
+        objects[size++] = value;
+    }
+
+    public Object pop(Token token) {
+        if (size == 0) throw new RuntimeError(token, "Can't pop from an empty list.");
+
+        Object value = get(--size);
+        if (objects != null) objects[size] = null;
+        return value;
+    }
+
+    // Follows the list as it is now, so elements appended while iterating are visited.
+    public LoxIterator iterator() {
+        return new LoxIterator() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Object next() {
+                return LoxList.this.get(next++);
+            }
+        };
+    }
+
+    public Object[] toArray() {
+        Object[] array = new Object[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = get(i);
+        }
+
+        return array;
+    }
+
+    private void promote() {
+        objects = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            objects[i] = numbers[i];
+        }
+
+        numbers = null;
+    }
+
+    public int index(Token token, Object index) {
+        if (!(index instanceof Double)) throw new RuntimeError(token, "List index must be a number.");
+
+        double number = (double) index;
+        int i = (int) number;
+        if (i != number || i < 0 || i >= size) {
+            throw new RuntimeError(token, "List index out of range.");
+        }
+
+        return i;
+    }
+
+    @Override
+    public Object get(Token name) {
+        return switch (name.lexeme) {
+            case "append" -> new LoxNative(1, (interpreter, arguments) -> {
+                add(arguments.get(0));
+                return null;
+            });
+            case "get" -> new LoxNative(1, (interpreter, arguments) -> get(index(null, arguments.get(0))));
+            case "length" -> new LoxNative(0, (interpreter, arguments) -> (double) size);
+            case "pop" -> new LoxNative(0, (interpreter, arguments) -> pop(null));
+            default -> throw LoxNative.undefined(name);
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(Interpreter.stringify(get(i)));
+        }
+
+        return builder.append("]").toString();
+    }
+}
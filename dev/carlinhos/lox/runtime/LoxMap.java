@@ -0,0 +1,176 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.passes.Interpreter;
+
+public class LoxMap implements LoxObject {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    // Marks a removed entry so probing continues past it.
+    private static final Object TOMBSTONE = new Object();
+
+    // Open addressing with linear probing. A null key is a free slot, the
+    // capacity is always a power of two and at most three quarters is used.
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size;
+    private int used;
+
+    private static int hash(Object key) {
+        int hash;
+        if (key instanceof Double) {
+            // Same bits Double.equals compares, without going through hashCode().
+            long bits = Double.doubleToLongBits((double) key);
+            hash = (int) (bits ^ (bits >>> 32));
+        } else {
+            hash = key.hashCode();
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean same(Object a, Object b) {
+        if (a == b) return true;
+        if (a instanceof Double && b instanceof Double) {
+            return Double.doubleToLongBits((double) a) == Double.doubleToLongBits((double) b);
+        }
+        if (a instanceof String && b instanceof String) return a.equals(b);
+        if (a instanceof Double || a instanceof String) return false;
+
+        return a.equals(b);
+    }
+
+    private static Object key(Token token, Object key) {
+        if (key == null) throw new RuntimeError(token, "Map key can't be nil.");
+        return LoxString.normalize(key);
+    }
+
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object candidate = keys[i];
+            if (candidate == null) return -1;
+            if (candidate != TOMBSTONE && same(candidate, key)) return i;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Object get(Token token, Object key) {
+        int slot = find(key(token, key));
+        return slot < 0 ? null : values[slot];
+    }
+
+    public boolean containsKey(Token token, Object key) {
+        return find(key(token, key)) >= 0;
+    }
+
+    public void put(Token token, Object key, Object value) {
+        key = key(token, key);
+        if (used + 1 > keys.length - (keys.length >> 2)) resize();
+
+        int mask = keys.length - 1;
+        int free = -1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            Object candidate = keys[i];
+            if (candidate == null) {
+                if (free < 0) {
+                    free = i;
+                    used++;
+                }
+                break;
+            }
+
+            if (candidate == TOMBSTONE) {
+                if (free < 0) free = i;
+            } else if (same(candidate, key)) {
+                values[i] = value;
+                return;
+            }
+        }
+
+        keys[free] = key;
+        values[free] = value;
+        size++;
+    }
+
+    public Object remove(Token token, Object key) {
+        int slot = find(key(token, key));
+        if (slot < 0) return null;
+
+        Object value = values[slot];
+        keys[slot] = TOMBSTONE;
+        values[slot] = null;
+        size--;
+        return value;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        // Only grow if live entries need it, otherwise just drop tombstones.
+        int capacity = size + 1 > oldKeys.length >> 1 ? oldKeys.length * 2 : oldKeys.length;
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        used = size;
+
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            Object key = oldKeys[j];
+            if (key == null || key == TOMBSTONE) continue;
+
+            int i = hash(key) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = key;
+            values[i] = oldValues[j];
+        }
+    }
+
+    public LoxList keys() {
+        LoxList list = new LoxList();
+        for (Object key : keys) {
+            if (key != null && key != TOMBSTONE) list.add(key);
+        }
+
+        return list;
+    }
+
+    public LoxList values() {
+        LoxList list = new LoxList();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && keys[i] != TOMBSTONE) list.add(values[i]);
+        }
+
+        return list;
+    }
+
+    @Override
+    public Object get(Token name) {
+        return switch (name.lexeme) {
+            case "containsKey" -> new LoxNative(1, (interpreter, arguments) -> containsKey(null, arguments.get(0)));
+            case "remove" -> new LoxNative(1, (interpreter, arguments) -> remove(null, arguments.get(0)));
+            case "keys" -> new LoxNative(0, (interpreter, arguments) -> keys());
+            case "values" -> new LoxNative(0, (interpreter, arguments) -> values());
+            case "length" -> new LoxNative(0, (interpreter, arguments) -> (double) size);
+            default -> throw LoxNative.undefined(name);
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            Object key = keys[i];
+            if (key == null || key == TOMBSTONE) continue;
+
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(Interpreter.stringify(key)).append(": ").append(Interpreter.stringify(values[i]));
+        }
+
+        return builder.append("}").toString();
+    }
+}
@@ -0,0 +1,100 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.passes.Interpreter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Wraps a function with a bounded least-recently-used cache of its results,
+// keyed on the argument list. Keys compare like Lox ==: numbers and strings
+// by value, everything else by identity.
+public class LoxMemoized implements LoxCallable, LoxObject {
+
+    private record Entry(Object value, long expiresAt) {
+    }
+
+    private final LoxCallable function;
+    private final long ttlNanos;
+    private final Map<List<Object>, Entry> cache;
+    private long hits = 0;
+    private long misses = 0;
+
+    public LoxMemoized(LoxCallable function, int maxEntries, double ttlSeconds) {
+        this.function = function;
+        this.ttlNanos = ttlSeconds > 0 ? (long) (ttlSeconds * 1e9) : 0;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        List<Object> key = new ArrayList<>(arguments.size());
+        for (Object argument : arguments) {
+            key.add(LoxString.normalize(argument));
+        }
+
+        long now = ttlNanos > 0 ? System.nanoTime() : 0;
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry != null && (ttlNanos == 0 || now - entry.expiresAt < 0)) {
+                hits++;
+                return entry.value;
+            }
+            misses++;
+        }
+
+        // Computed outside the lock so recursive and parallel calls don't block.
+        Object value = function.call(interpreter, arguments);
+
+        synchronized (cache) {
+            cache.put(key, new Entry(value, now + ttlNanos));
+        }
+
+        return value;
+    }
+
+    @Override
+    public Object get(Token name) {
+        return switch (name.lexeme) {
+            case "hits" -> new LoxNative(0, (interpreter, arguments) -> {
+                synchronized (cache) {
+                    return (double) hits;
+                }
+            });
+            case "misses" -> new LoxNative(0, (interpreter, arguments) -> {
+                synchronized (cache) {
+                    return (double) misses;
+                }
+            });
+            case "size" -> new LoxNative(0, (interpreter, arguments) -> {
+                synchronized (cache) {
+                    return (double) cache.size();
+                }
+            });
+            case "clear" -> new LoxNative(0, (interpreter, arguments) -> {
+                synchronized (cache) {
+                    cache.clear();
+                }
+                return null;
+            });
+            default -> throw LoxNative.undefined(name);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "<memoized " + function + ">";
+    }
+}
@@ -0,0 +1,72 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.passes.Interpreter;
+
+import java.util.List;
+
+public class LoxNative implements LoxCallable {
+
+    public interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+
+    private final int arity;
+    private final Body body;
+
+    public LoxNative(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    public static double number(Object value, String what) {
+        if (value instanceof Double) return (double) value;
+        throw new RuntimeError(what + " must be a number.");
+    }
+
+    public static int count(Object value, String what) {
+        double number = number(value, what);
+        if (number >= 1 && number <= Integer.MAX_VALUE && number == Math.rint(number)) return (int) number;
+        throw new RuntimeError(what + " must be a positive integer.");
+    }
+
+    public static String string(Object value, String what) {
+        if (value instanceof CharSequence) return value.toString();
+        throw new RuntimeError(what + " must be a string.");
+    }
+
+    public static LoxCallable callable(Object value, String what) {
+        if (value instanceof LoxCallable) return (LoxCallable) value;
+        throw new RuntimeError(what + " must be a function.");
+    }
+
+    public static LoxCallable callable(Object value, int arity, String what) {
+        LoxCallable callable = callable(value, what);
+        if (callable.arity() == arity) return callable;
+        throw new RuntimeError(what + " must take " + arity + (arity == 1 ? " argument." : " arguments."));
+    }
+
+    public static LoxList list(Object value, String what) {
+        if (value instanceof LoxList) return (LoxList) value;
+        throw new RuntimeError(what + " must be a list.");
+    }
+
+    public static RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return body.call(interpreter, arguments);
+    }
+}
@@ -0,0 +1,11 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+
+public interface LoxObject {
+    Object get(Token name);
+
+    default void set(Token name, Object value) {
+        throw new RuntimeError(name, "Can't add properties to " + this + ".");
+    }
+}
@@ -0,0 +1,45 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.entities.Token;
+import dev.carlinhos.lox.passes.Interpreter;
+
+// The numbers from start up to, but not including, end.
+public class LoxRange implements LoxObject {
+
+    public final double start;
+    public final double end;
+
+    public LoxRange(double start, double end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public LoxIterator iterator() {
+        return new LoxIterator() {
+            private double next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Object next() {
+                return next++;
+            }
+        };
+    }
+
+    @Override
+    public Object get(Token name) {
+        return switch (name.lexeme) {
+            case "iterator" -> new LoxNative(0, (interpreter, arguments) -> iterator());
+            default -> throw LoxNative.undefined(name);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "range(" + Interpreter.stringify(start) + ", " + Interpreter.stringify(end) + ")";
+    }
+}
@@ -0,0 +1,88 @@
+package dev.carlinhos.lox.runtime;
+
+// The result of a string concatenation. Ropes built by appending to the
+// end of another rope share its builder, so a loop doing s = s + x only
+// copies each piece once. The text is flattened on demand and cached.
+public final class LoxString implements CharSequence {
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat;
+
+    private LoxString(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    public static LoxString concat(Object left, Object right) {
+        String tail = text(right);
+
+        if (left instanceof LoxString rope) {
+            synchronized (rope.builder) {
+                // Only the newest rope on a builder may append in place,
+                // older ones are prefixes of it and must stay untouched.
+                if (rope.builder.length() == rope.length) {
+                    rope.builder.append(tail);
+                    return new LoxString(rope.builder, rope.builder.length());
+                }
+            }
+        }
+
+        String head = text(left);
+        StringBuilder builder = new StringBuilder(Math.max(16, (head.length() + tail.length()) * 2));
+        builder.append(head).append(tail);
+        return new LoxString(builder, builder.length());
+    }
+
+    private static String text(Object value) {
+        if (value == null) return "nil";
+        return value.toString();
+    }
+
+    // Strings and ropes with the same text are the same Lox value.
+    public static Object normalize(Object value) {
+        if (value instanceof LoxString) return value.toString();
+        return value;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            synchronized (builder) {
+                text = builder.substring(0, length);
+            }
+            flat = text;
+        }
+
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof LoxString)) return false;
+
+        return length == ((LoxString) other).length && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
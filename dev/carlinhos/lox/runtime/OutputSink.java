@@ -0,0 +1,191 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.passes.Interpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+// Buffered destination for everything the interpreter prints. Output only
+// reaches the stream when the buffer fills or on flush(), which Lox calls
+// at exit, before REPL prompts and before reporting errors.
+//
+// Configured through system properties:
+//   lox.output.buffer  buffer size in bytes (default 65536)
+//   lox.output.async   hand full buffers to a background writer (default false)
+public class OutputSink {
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+    private record Chunk(byte[] bytes, int length) {
+    }
+
+    private final OutputStream out;
+    private final Charset charset = Charset.defaultCharset();
+    private byte[] buffer;
+    private int position = 0;
+
+    // Only used in async mode.
+    private BlockingQueue<Object> pending;
+    private BlockingQueue<byte[]> free;
+
+    public OutputSink(OutputStream out, int size, boolean async) {
+        this.out = out;
+        this.buffer = new byte[Math.max(size, 64)];
+
+        if (async) {
+            pending = new ArrayBlockingQueue<>(4);
+            free = new ArrayBlockingQueue<>(4);
+            free.add(new byte[buffer.length]);
+
+            Thread writer = new Thread(this::writeChunks, "lox-output");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    public static OutputSink fromProperties(OutputStream out) {
+        int size = Integer.getInteger("lox.output.buffer", 1 << 16);
+        boolean async = Boolean.getBoolean("lox.output.async");
+        return new OutputSink(out, size, async);
+    }
+
+    public synchronized void print(String text) {
+        writeChars(text);
+    }
+
+    public synchronized void println(String text) {
+        writeChars(text);
+        writeBytes(LINE_SEPARATOR);
+    }
+
+    // Writes a value the way Interpreter.stringify formats it.
+    public synchronized void printValue(Object value) {
+        if (value instanceof Double) {
+            writeNumber((double) value);
+        } else if (value == null) {
+            writeChars("nil");
+        } else {
+            writeChars(value.toString());
+        }
+
+        writeBytes(LINE_SEPARATOR);
+    }
+
+    public synchronized void flush() {
+        if (pending == null) {
+            drain();
+            flushStream();
+            return;
+        }
+
+        if (position > 0) drain();
+        CountDownLatch written = new CountDownLatch(1);
+        try {
+            pending.put(written);
+            written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeNumber(double number) {
+        // Integers below 1e7 are the ones Double.toString prints as "n.0".
+        if (number == Math.rint(number) && Math.abs(number) < 1e7) {
+            if (position + 9 > buffer.length) drain();
+
+            long value = (long) number;
+            if (Double.doubleToRawLongBits(number) < 0) {
+                buffer[position++] = '-';
+                value = -value;
+            }
+
+            int digits = 1;
+            for (long rest = value / 10; rest != 0; rest /= 10) digits++;
+
+            for (int i = position + digits - 1; i >= position; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            position += digits;
+            return;
+        }
+
+        writeChars(Interpreter.stringify(number));
+    }
+
+    private void writeChars(String text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                writeBytes(text.substring(i).getBytes(charset));
+                return;
+            }
+
+            if (position == buffer.length) drain();
+            buffer[position++] = (byte) c;
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == buffer.length) drain();
+
+            int count = Math.min(bytes.length - offset, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, count);
+            position += count;
+            offset += count;
+        }
+    }
+
+    private void drain() {
+        if (pending == null) {
+            write(buffer, position);
+            position = 0;
+            return;
+        }
+
+        try {
+            pending.put(new Chunk(buffer, position));
+            buffer = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        position = 0;
+    }
+
+    private void write(byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void flushStream() {
+        try {
+            out.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void writeChunks() {
+        try {
+            for (; ; ) {
+                Object next = pending.take();
+
+                if (next instanceof Chunk chunk) {
+                    write(chunk.bytes, chunk.length);
+                    free.put(chunk.bytes);
+                } else {
+                    flushStream();
+                    ((CountDownLatch) next).countDown();
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package dev.carlinhos.lox.runtime;
+
+import dev.carlinhos.lox.passes.Interpreter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Data-parallel list operations on the common ForkJoin pool. Every leaf task
+// calls back into Lox through its own forked interpreter.
+public final class Parallel {
+
+    // Below this many elements the fork/join overhead isn't worth it.
+    static final int SEQUENTIAL_THRESHOLD = 128;
+
+    // Marks an empty partial result in reductions, since nil is a valid value.
+    private static final Object NONE = new Object();
+
+    private Parallel() {
+    }
+
+    private static int grain(int size) {
+        return Math.max(1, size / (ForkJoinPool.getCommonPoolParallelism() * 8));
+    }
+
+    private interface Leaf {
+        void run(Interpreter worker, int from, int to);
+    }
+
+    private static class Chunk extends RecursiveAction {
+        private final Interpreter interpreter;
+        private final Leaf leaf;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Chunk(Interpreter interpreter, Leaf leaf, int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.leaf = leaf;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                leaf.run(interpreter.fork(), from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new Chunk(interpreter, leaf, from, middle, grain),
+                    new Chunk(interpreter, leaf, middle, to, grain));
+        }
+    }
+
+    private static void forEach(Interpreter interpreter, int size, Leaf leaf) {
+        if (size < SEQUENTIAL_THRESHOLD) {
+            leaf.run(interpreter, 0, size);
+        } else {
+            ForkJoinPool.commonPool().invoke(new Chunk(interpreter, leaf, 0, size, grain(size)));
+        }
+    }
+
+    public static LoxList map(Interpreter interpreter, LoxList list, LoxCallable function) {
+        Object[] elements = list.toArray();
+        Object[] results = new Object[elements.length];
+
+        forEach(interpreter, elements.length, (worker, from, to) -> {
+            for (int i = from; i < to; i++) {
+                results[i] = function.call(worker, Collections.singletonList(elements[i]));
+            }
+        });
+
+        return new LoxList(results);
+    }
+
+    public static LoxList filter(Interpreter interpreter, LoxList list, LoxCallable predicate) {
+        Object[] elements = list.toArray();
+        boolean[] keep = new boolean[elements.length];
+
+        forEach(interpreter, elements.length, (worker, from, to) -> {
+            for (int i = from; i < to; i++) {
+                keep[i] = Interpreter.isTruthy(predicate.call(worker, Collections.singletonList(elements[i])));
+            }
+        });
+
+        LoxList result = new LoxList();
+        for (int i = 0; i < elements.length; i++) {
+            if (keep[i]) result.add(elements[i]);
+        }
+
+        return result;
+    }
+
+    private static class Reduction extends RecursiveTask<Object> {
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final Object[] elements;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Reduction(Interpreter interpreter, LoxCallable function, Object[] elements, int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from <= grain) {
+                return reduce(interpreter.fork(), function, elements, from, to);
+            }
+
+            int middle = (from + to) >>> 1;
+            Reduction left = new Reduction(interpreter, function, elements, from, middle, grain);
+            Reduction right = new Reduction(interpreter, function, elements, middle, to, grain);
+            right.fork();
+
+            Object leftValue = left.compute();
+            Object rightValue = right.join();
+            return combine(interpreter.fork(), function, leftValue, rightValue);
+        }
+    }
+
+    private static Object reduce(Interpreter worker, LoxCallable function, Object[] elements, int from, int to) {
+        Object accumulator = NONE;
+        for (int i = from; i < to; i++) {
+            accumulator = combine(worker, function, accumulator, elements[i]);
+        }
+
+        return accumulator;
+    }
+
+    private static Object combine(Interpreter worker, LoxCallable function, Object left, Object right) {
+        if (left == NONE) return right;
+        if (right == NONE) return left;
+        return function.call(worker, Arrays.asList(left, right));
+    }
+
+    // The function must be associative, partial results are combined in
+    // order but grouped arbitrarily. An empty list reduces to nil.
+    public static Object reduce(Interpreter interpreter, LoxList list, LoxCallable function) {
+        Object[] elements = list.toArray();
+        Object result;
+
+        if (elements.length < SEQUENTIAL_THRESHOLD) {
+            result = reduce(interpreter, function, elements, 0, elements.length);
+        } else {
+            result = ForkJoinPool.commonPool().invoke(
+                    new Reduction(interpreter, function, elements, 0, elements.length, grain(elements.length)));
+        }
+
+        return result == NONE ? null : result;
+    }
+
+    public static LoxList sort(Interpreter interpreter, LoxList list, LoxCallable comparator) {
+        Object[] elements = list.toArray();
+
+        try {
+            if (elements.length < SEQUENTIAL_THRESHOLD) {
+                Arrays.sort(elements, comparator(interpreter, comparator));
+            } else {
+                // The pool runs the comparator on many threads, each needs its own interpreter.
+                ThreadLocal<Interpreter> workers = ThreadLocal.withInitial(interpreter::fork);
+                Arrays.parallelSort(elements, (a, b) -> compare(workers.get(), comparator, a, b));
+            }
+        } catch (IllegalArgumentException error) {
+            throw new RuntimeError("Comparator is inconsistent.");
+        }
+
+        return new LoxList(elements);
+    }
+
+    private static Comparator<Object> comparator(Interpreter interpreter, LoxCallable comparator) {
+        return (a, b) -> compare(interpreter, comparator, a, b);
+    }
+
+    private static int compare(Interpreter worker, LoxCallable comparator, Object a, Object b) {
+        double order = LoxNative.number(comparator.call(worker, Arrays.asList(a, b)), "Comparator result");
+        return order < 0 ? -1 : order > 0 ? 1 : 0;
+    }
+}
@@ -9,4 +9,9 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    // Natives don't know their call site, the interpreter fills it in.
+    public RuntimeError(String message) {
+        this(null, message);
+    }
 }
@@ -118,6 +118,32 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return "";
     }
 
+    @Override
+    public String visitListLiteralExpr(Expr.ListLiteral expr) {
+        return parenthesize("list", expr.elements.toArray());
+    }
+
+    @Override
+    public String visitMapLiteralExpr(Expr.MapLiteral expr) {
+        List<Expr> entries = new ArrayList<>();
+        for (int i = 0; i < expr.keys.size(); i++) {
+            entries.add(expr.keys.get(i));
+            entries.add(expr.values.get(i));
+        }
+
+        return parenthesize("map", entries.toArray());
+    }
+
+    @Override
+    public String visitIndexExpr(Expr.Index expr) {
+        return parenthesize("[]", expr.object, expr.index);
+    }
+
+    @Override
+    public String visitIndexSetExpr(Expr.IndexSet expr) {
+        return parenthesize("[]=", expr.object, expr.index, expr.value);
+    }
+
     @Override
     public String visitSuperExpr(Expr.Super expr) {
         return "";
@@ -195,6 +221,16 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesize("return", stmt.value);
     }
 
+    @Override
+    public String visitYieldStmt(Stmt.Yield stmt) {
+        return parenthesize("yield", stmt.value);
+    }
+
+    @Override
+    public String visitImportStmt(Stmt.Import stmt) {
+        return parenthesize("import", new Expr.Literal(stmt.path));
+    }
+
     @Override
     public String visitBreakStmt(Stmt.Break stmt) {
         return "(break)";
@@ -209,6 +245,20 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesize("var", new Expr.Literal(stmt.name.lexeme), stmt.initializer);
     }
 
+    @Override
+    public String visitForInStmt(Stmt.ForIn stmt) {
+        return "(for " + stmt.name.lexeme + " " + stmt.iterable.accept(this) + stmt.body.accept(this) + ")";
+    }
+
+    @Override
+    public String visitForStmt(Stmt.For stmt) {
+        String initializer = stmt.initializer == null ? "" : stmt.initializer.accept(this);
+        String condition = stmt.condition == null ? "" : stmt.condition.accept(this);
+        String increment = stmt.increment == null ? "" : stmt.increment.accept(this);
+
+        return "(for " + initializer + condition + increment + stmt.body.accept(this) + ")";
+    }
+
     @Override
     public String visitWhileStmt(Stmt.While stmt) {
 
@@ -17,32 +17,40 @@ public class GenerateAst {
 
         defineAst(outputDir, "Expr", Arrays.asList(
                 "Grouping : Expr expression",
-                "Assign   : Token name, Expr value",
+                "Assign   : Token name, Expr value ; Binding binding, Cell global",
                 "Ternary  : Expr condition, Expr left, Expr right",
-                "Variable : Token name",
+                "Variable : Token name ; Binding binding, Cell global, boolean checked",
                 "Logical  : Expr left, Token operator, Expr right",
                 "Binary   : Expr left, Token operator, Expr right",
                 "Unary    : Token operator, Expr right",
                 "Comma    : Expr left, Expr right",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Lambda   : List<Token> params, List<Stmt> body",
+                "Lambda   : List<Token> params, List<Stmt> body ; FrameLayout layout",
                 "Literal  : Object value",
                 "Get      : Expr object, Token name",
                 "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword"
+                "ListLiteral : Token bracket, List<Expr> elements",
+                "MapLiteral : Token brace, List<Expr> keys, List<Expr> values",
+                "Index    : Expr object, Token bracket, Expr index",
+                "IndexSet : Expr object, Token bracket, Expr index, Expr value",
+                "Super    : Token keyword, Token method ; Binding binding, Binding self",
+                "This     : Token keyword ; Binding binding"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
-                "Var        : Token name, Expr initializer",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
-                "Lambda     : List<Token> params, List<Stmt> body",
-                "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods ; Binding binding, Binding superBinding",
+                "Var        : Token name, Expr initializer ; Binding binding",
+                "Import     : Token keyword, String path",
+                "Function   : Token name, List<Token> params, List<Stmt> body ; Binding binding, FrameLayout layout",
+                "Lambda     : List<Token> params, List<Stmt> body ; FrameLayout layout",
+                "If         : Token keyword, Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
+                "Yield      : Token keyword, Expr value",
                 "Break      : Token keyword",
-                "While      : Expr condition, Stmt body",
+                "While      : Token keyword, Expr condition, Stmt body ; LoopProfile profile",
+                "For        : Stmt initializer, Expr condition, Expr increment, Stmt body ; Binding counter, double step",
+                "ForIn      : Token name, Expr iterable, Stmt body ; Binding binding",
                 "Block      : List<Stmt> statements",
                 "Expression : Expr expression"
         ));
@@ -65,8 +73,9 @@ public class GenerateAst {
         // The AST classes.
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split(";");
+            String slots = fields.length > 1 ? fields[1].trim() : null;
+            defineType(writer, baseName, className, fields[0].trim(), slots);
         }
 
         // The base accept() method.
@@ -93,7 +102,7 @@ public class GenerateAst {
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldList, String slotList) {
         writer.println("  public static class " + className + " extends " +
                 baseName + " {");
 
@@ -123,6 +132,14 @@ public class GenerateAst {
             writer.println("    public final " + field + ";");
         }
 
+        // Slots are filled in by later passes, not by the parser.
+        if (slotList != null) {
+            writer.println();
+            for (String slot : slotList.split(", ")) {
+                writer.println("    public " + slot + ";");
+            }
+        }
+
         writer.println("  }");
         writer.println();
     }
@@ -0,0 +1,36 @@
+package dev.carlinhos.tool;
+
+import dev.carlinhos.lox.Lox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Runs a prelude once and writes the globals it declares to a heap image.
+// Scripts run with -Dlox.image=<image> start with those globals defined,
+// without running the prelude.
+public class LoxImage {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: loximage <prelude> [output image]");
+            System.exit(64);
+        }
+
+        Path prelude = Paths.get(args[0]).toAbsolutePath();
+        Path image = args.length == 2 ? Paths.get(args[1]) : imageFor(prelude);
+
+        try {
+            if (!Lox.buildImage(prelude, image)) System.exit(65);
+        } catch (IllegalArgumentException error) {
+            System.err.println(error.getMessage());
+            System.exit(65);
+        }
+    }
+
+    private static Path imageFor(Path prelude) {
+        String name = prelude.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        return prelude.resolveSibling(name + ".loximg");
+    }
+}
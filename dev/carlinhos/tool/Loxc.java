@@ -0,0 +1,151 @@
+package dev.carlinhos.tool;
+
+import dev.carlinhos.lox.Lox;
+import dev.carlinhos.lox.Precompiled;
+import dev.carlinhos.lox.entities.Stmt;
+import dev.carlinhos.lox.entities.TypeFeedback;
+import dev.carlinhos.lox.passes.CompactAst;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+// Compiles a Lox script ahead of time into an executable JAR holding the
+// parsed program, the modules it imports and the interpreter that runs it.
+// The JAR prints what running the script itself would, without scanning or
+// parsing at startup or reading the modules from disk.
+public class Loxc {
+
+    // Everything the interpreter needs lives under this package.
+    private static final String RUNTIME = "dev/carlinhos/lox/";
+
+    public static void main(String[] args) throws IOException, URISyntaxException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: loxc <script> [output jar]");
+            System.exit(64);
+        }
+
+        Path script = Paths.get(args[0]).toAbsolutePath();
+        Path jar = args.length == 2 ? Paths.get(args[1]) : jarFor(script);
+
+        String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+        CompactAst ast = Lox.compile(source);
+        if (ast == null) System.exit(65);
+
+        Precompiled.Source program = new Precompiled.Source(script.toString(), TypeFeedback.hash(source), ast);
+        List<Precompiled.Source> modules = imports(program);
+        if (modules == null) System.exit(65);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Precompiled.class.getName());
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            addRuntime(out);
+
+            out.putNextEntry(new JarEntry(Precompiled.PROGRAM));
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            program.write(data);
+            data.writeInt(modules.size());
+            for (Precompiled.Source module : modules) {
+                module.write(data);
+            }
+            data.flush();
+            out.closeEntry();
+        }
+    }
+
+    // Parses every module the program imports, and the ones those import,
+    // by the path each import resolves to. Their tokens name them by their
+    // path from the script's directory. Returns null if one is missing or
+    // has syntax errors.
+    private static List<Precompiled.Source> imports(Precompiled.Source program) {
+        Path root = Paths.get(program.path()).getParent();
+        Map<Path, Precompiled.Source> modules = new LinkedHashMap<>();
+        Deque<Precompiled.Source> pending = new ArrayDeque<>(List.of(program));
+
+        while (!pending.isEmpty()) {
+            Precompiled.Source importer = pending.pop();
+            Path directory = Paths.get(importer.path()).getParent();
+
+            // Imports are only allowed at the top level.
+            for (int i = 0; i < importer.ast().size(); i++) {
+                if (!(importer.ast().statement(i) instanceof Stmt.Import stmt)) continue;
+
+                Path path = directory.resolve(stmt.path).normalize();
+                if (modules.containsKey(path)) continue;
+
+                String source;
+                try {
+                    source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+                } catch (IOException | InvalidPathException e) {
+                    System.err.println("Can't find module '" + stmt.path + "' imported by " + importer.path() + ".");
+                    return null;
+                }
+
+                CompactAst ast = Lox.parseModule(source, root.relativize(path).toString());
+                if (ast == null) return null;
+
+                Precompiled.Source module = new Precompiled.Source(path.toString(), TypeFeedback.hash(source), ast);
+                modules.put(path, module);
+                pending.push(module);
+            }
+        }
+
+        return new ArrayList<>(modules.values());
+    }
+
+    private static Path jarFor(Path script) {
+        String name = script.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+        return script.resolveSibling(name + ".jar");
+    }
+
+    // Copies the interpreter's classes from wherever this one was loaded,
+    // a class directory or a JAR.
+    private static void addRuntime(JarOutputStream out) throws IOException, URISyntaxException {
+        Path location = Paths.get(Lox.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+        if (Files.isDirectory(location)) {
+            addClasses(out, location);
+            return;
+        }
+
+        try (FileSystem jar = FileSystems.newFileSystem(location, (ClassLoader) null)) {
+            addClasses(out, jar.getPath("/"));
+        }
+    }
+
+    private static void addClasses(JarOutputStream out, Path root) throws IOException {
+        List<Path> classes;
+        try (Stream<Path> files = Files.walk(root.resolve(RUNTIME))) {
+            classes = files.filter(file -> file.toString().endsWith(".class")).sorted().toList();
+        }
+
+        for (Path file : classes) {
+            String name = root.relativize(file).toString().replace(root.getFileSystem().getSeparator(), "/");
+            out.putNextEntry(new JarEntry(name));
+            out.write(Files.readAllBytes(file));
+            out.closeEntry();
+        }
+    }
+}